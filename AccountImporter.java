@@ -0,0 +1,248 @@
+package scheduler;
+
+import scheduler.db.ConnectionPool;
+import scheduler.db.Query;
+import scheduler.model.UsernameRegistry;
+import scheduler.util.Collation;
+import scheduler.util.PasswordHasher;
+import scheduler.util.PasswordPolicy;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk-creates patient and caregiver accounts from a CSV file with lines of the form
+ * {@code role,username,password}, where role is "patient" or "caregiver". A header line starting with "role"
+ * is skipped.
+ *
+ * The file is streamed in chunks. Passwords are hashed on a worker pool sized to the number of cores, usernames
+ * are checked against sets loaded once from the database, and each chunk is written with JDBC batch inserts in
+ * one transaction. After every committed chunk the number of processed lines is written to
+ * {@code <csv>.checkpoint}, and a later run over the same file resumes from there. The checkpoint is deleted
+ * once the last chunk commits, so it only outlives a run that failed.
+ */
+public class AccountImporter {
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private final Path csv;
+    private final Path checkpoint;
+    private final int chunkSize;
+    private final PasswordPolicy passwordPolicy;
+
+    // by Collation.key, as the primary keys compare usernames
+    private final Set<String> patients = new HashSet<String>();
+    private final Set<String> caregivers = new HashSet<String>();
+
+    private long imported = 0;
+    private long duplicates = 0;
+    private long rejected = 0;
+
+    public AccountImporter(String csv, int chunkSize, PasswordPolicy passwordPolicy) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive!");
+        }
+        this.csv = Paths.get(csv);
+        this.checkpoint = Paths.get(csv + ".checkpoint");
+        this.chunkSize = chunkSize;
+        this.passwordPolicy = passwordPolicy;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public void run() throws IOException, SQLException {
+        long resumeFrom = readCheckpoint();
+        loadUsernames();
+        ExecutorService hashers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime();
+        long line = 0;
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            if (resumeFrom > 0) {
+                System.out.println("Resuming import after line " + resumeFrom);
+            }
+            List<String[]> chunk = new ArrayList<String[]>(chunkSize);
+            String row;
+            while ((row = reader.readLine()) != null) {
+                line++;
+                if (line <= resumeFrom) {
+                    continue;
+                }
+                String[] fields = parse(row, line);
+                if (fields != null) {
+                    chunk.add(fields);
+                }
+                if (chunk.size() == chunkSize) {
+                    writeChunk(chunk, hashers);
+                    chunk.clear();
+                    writeCheckpoint(line);
+                    reportProgress(line, start);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                writeChunk(chunk, hashers);
+            }
+            // the file is done, so a later run over a regenerated file at the same path starts from the top
+            Files.deleteIfExists(checkpoint);
+            reportProgress(line, start);
+        } finally {
+            hashers.shutdownNow();
+        }
+    }
+
+    // returns {table, username, password}, or null for the header, blank lines and rows that are skipped
+    private String[] parse(String row, long line) {
+        if (row.trim().isEmpty() || (line == 1 && row.startsWith("role"))) {
+            return null;
+        }
+        String[] fields = row.split(",", 3);
+        if (fields.length != 3) {
+            System.out.println("Skipping malformed line " + line);
+            rejected++;
+            return null;
+        }
+        String role = fields[0].trim();
+        String username = fields[1].trim();
+        String password = fields[2];
+        Set<String> existing;
+        String table;
+        if (role.equalsIgnoreCase("patient")) {
+            existing = patients;
+            table = "Patients";
+        } else if (role.equalsIgnoreCase("caregiver")) {
+            existing = caregivers;
+            table = "Caregivers";
+        } else {
+            System.out.println("Skipping line " + line + ": unknown role " + role);
+            rejected++;
+            return null;
+        }
+        if (!passwordPolicy.isStrong(password)) {
+            System.out.println("Skipping line " + line + ": weak password for " + username);
+            rejected++;
+            return null;
+        }
+        // also catches usernames repeated within the file, in any case
+        if (!existing.add(Collation.key(username))) {
+            duplicates++;
+            return null;
+        }
+        return new String[]{table, username, password};
+    }
+
+    private void writeChunk(List<String[]> chunk, ExecutorService hashers) throws SQLException {
+        List<Future<byte[][]>> hashes = new ArrayList<Future<byte[][]>>(chunk.size());
+        for (String[] account : chunk) {
+            String password = account[2];
+            hashes.add(hashers.submit(() -> {
+                byte[] salt = Util.generateSalt();
+                return new byte[][]{salt, PasswordHasher.getInstance().encode(password, salt)};
+            }));
+        }
+
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+        try (PreparedStatement addPatient = pool.prepare(con, Query.PATIENT_INSERT);
+             PreparedStatement addCaregiver = pool.prepare(con, Query.CAREGIVER_INSERT)) {
+            con.setAutoCommit(false);
+            for (int i = 0; i < chunk.size(); i++) {
+                String[] account = chunk.get(i);
+                byte[][] saltAndHash = hashes.get(i).get();
+                PreparedStatement statement = account[0].equals("Patients") ? addPatient : addCaregiver;
+                statement.setString(1, account[1]);
+                statement.setBytes(2, saltAndHash[0]);
+                statement.setBytes(3, saltAndHash[1]);
+                statement.addBatch();
+            }
+            addPatient.executeBatch();
+            addCaregiver.executeBatch();
+            con.commit();
+            UsernameRegistry registry = UsernameRegistry.getInstance();
+            for (String[] account : chunk) {
+                registry.added(account[0].equals("Patients") ? UsernameRegistry.Role.PATIENT
+                        : UsernameRegistry.Role.CAREGIVER, account[1]);
+            }
+            imported += chunk.size();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while hashing passwords", e);
+        } catch (ExecutionException e) {
+            throw new SQLException("Failed to hash a password", e.getCause());
+        } finally {
+            pool.returnConnection(con);
+        }
+    }
+
+    private void loadUsernames() throws SQLException {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+        try {
+            loadUsernames(pool, con, Query.PATIENT_USERNAMES, patients);
+            loadUsernames(pool, con, Query.CAREGIVER_USERNAMES, caregivers);
+        } finally {
+            pool.returnConnection(con);
+        }
+    }
+
+    private static void loadUsernames(ConnectionPool pool, Connection con, Query query, Set<String> usernames)
+            throws SQLException {
+        try (PreparedStatement statement = pool.prepare(con, query);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                usernames.add(Collation.key(resultSet.getString("Username")));
+            }
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        String content = new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim();
+        try {
+            return content.isEmpty() ? 0 : Long.parseLong(content);
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt checkpoint file " + checkpoint, e);
+        }
+    }
+
+    // written through a temporary file so that a crash never leaves a half-written checkpoint behind
+    private void writeCheckpoint(long line) throws IOException {
+        Path tmp = Paths.get(checkpoint + ".tmp");
+        Files.write(tmp, Long.toString(line).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void reportProgress(long line, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long rate = seconds > 0 ? (long) (imported / seconds) : imported;
+        System.out.println("line " + line + ": imported " + imported + ", duplicates " + duplicates
+                + ", rejected " + rejected + " (" + rate + " accounts/s)");
+    }
+}
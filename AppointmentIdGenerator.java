@@ -0,0 +1,32 @@
+package scheduler.util;
+
+/**
+ * Produces appointment ids without a database round-trip. Ids from one generator are unique and increase
+ * strictly, both numerically and as strings, so new rows are appended to the end of the Appointments primary
+ * key index.
+ *
+ * The implementation is chosen with the scheduler.appointmentIds system property; "snowflake" is the default
+ * and currently the only one.
+ */
+public interface AppointmentIdGenerator {
+    String nextId();
+
+    static AppointmentIdGenerator getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    final class Holder {
+        private static final AppointmentIdGenerator INSTANCE = create(
+                System.getProperty("scheduler.appointmentIds", "snowflake"));
+
+        private Holder() {
+        }
+
+        private static AppointmentIdGenerator create(String name) {
+            if (name.equals("snowflake")) {
+                return new SnowflakeIdGenerator(Integer.getInteger("scheduler.nodeId", 0));
+            }
+            throw new IllegalArgumentException("Unknown appointment id generator: " + name);
+        }
+    }
+}
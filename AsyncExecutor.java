@@ -0,0 +1,124 @@
+package scheduler.db;
+
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs blocking data-access calls on a dedicated, bounded thread pool and exposes them as CompletableFutures, so
+ * that a session can start several lookups at once and compose their results.
+ *
+ * The pool is configured with system properties: scheduler.async.threads (default: the connection pool's
+ * maximum size), scheduler.async.queueSize and scheduler.async.timeoutMillis (0 disables the default timeout).
+ * A task that cannot be queued fails with a RejectedExecutionException instead of blocking the caller.
+ *
+ * Cancelling a returned future, or letting it time out, interrupts the task, which aborts a wait for a pooled
+ * connection. Cancellation only reaches the task through the future returned here, not through futures derived
+ * from it with thenApply and friends.
+ */
+public class AsyncExecutor {
+    private static final AsyncExecutor INSTANCE = new AsyncExecutor(
+            Integer.getInteger("scheduler.async.threads", Integer.getInteger("scheduler.pool.maxSize", 16)),
+            Integer.getInteger("scheduler.async.queueSize", 1024),
+            Long.getLong("scheduler.async.timeoutMillis", 0L));
+
+    // a data-access call that may fail with an SQLException
+    public interface SqlCallable<T> {
+        T call() throws SQLException;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+    private volatile UnaryOperator<Runnable> taskDecorator = UnaryOperator.identity();
+
+    public static AsyncExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    public AsyncExecutor(int threads, int queueSize, long timeoutMillis) {
+        if (threads <= 0 || queueSize <= 0) {
+            throw new IllegalArgumentException("Invalid async pool: threads " + threads + ", queue " + queueSize);
+        }
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), r -> {
+            Thread thread = new Thread(r, "scheduler-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Wraps every task before it is queued, e.g. to carry thread-local state of the submitting thread over to
+     * the worker.
+     */
+    public void setTaskDecorator(UnaryOperator<Runnable> taskDecorator) {
+        this.taskDecorator = taskDecorator;
+    }
+
+    // runs the call with the default timeout
+    public <T> CompletableFuture<T> supply(SqlCallable<T> call) {
+        return supply(call, timeoutMillis);
+    }
+
+    // runs the call, failing the future with a TimeoutException after timeoutMillis (0 waits indefinitely)
+    public <T> CompletableFuture<T> supply(SqlCallable<T> call, long timeoutMillis) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        Future<?> task;
+        try {
+            task = executor.submit(taskDecorator.apply(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    result.complete(call.call());
+                } catch (SQLException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        // a cancelled or timed-out future no longer needs its task
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled() || error instanceof TimeoutException) {
+                task.cancel(true);
+            }
+        });
+        return timeoutMillis > 0 ? result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS) : result;
+    }
+
+    // waits for a future from supply, rethrowing the SQLException it failed with
+    public static <T> T await(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database call", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException("Database call failed", cause);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,40 +1,161 @@
-package scheduler.model;
-
-import scheduler.db.ConnectionManager;
-
-import java.sql.Connection;
-import java.sql.Date;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
-
-public class Availability {
-    private final Date time;
-    private final String username;
-
-    public static class AvailabilityBuilder {
-        private final Date time;
-        private final String username;
-
-        public AvailabilityBuilder(Date time, String username) {
-            this.time = time;
-            this.username = username;
-        }
-
-        public Availability build() {
-            return new Availability(this);
-        }
-    }
-
-    private Availability(AvailabilityBuilder builder) {
-        this.time = builder.time;
-        this.username = builder.username;
-    }
-
-    public Date getTime() {
-        return time;
-    }
-
-    public String getUsername() {
-        return username;
-    }
-}
+package scheduler.model;
+
+import scheduler.db.ConnectionPool;
+import scheduler.db.Query;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One slot a caregiver offers on a date and the number of patients it can still take. A row only exists while
+ * its capacity is above zero, so "has a row on that date" still means "is available that day".
+ */
+public class Availability {
+    // the result of claiming a place in a slot
+    public enum Claim {
+        UNAVAILABLE,
+        CLAIMED,
+        // the claim took the slot's last place, so the slot was deleted
+        FILLED
+    }
+
+    private final Date time;
+    private final Time slot;
+    private final String username;
+    private final int capacity;
+
+    public static class AvailabilityBuilder {
+        private final Date time;
+        private final String username;
+        private Time slot = SlotSchedule.FIRST;
+        private int capacity = 1;
+
+        public AvailabilityBuilder(Date time, String username) {
+            this.time = time;
+            this.username = username;
+        }
+
+        public AvailabilityBuilder slot(Time slot) {
+            this.slot = slot;
+            return this;
+        }
+
+        public AvailabilityBuilder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        public Availability build() {
+            return new Availability(this);
+        }
+    }
+
+    private Availability(AvailabilityBuilder builder) {
+        this.time = builder.time;
+        this.slot = builder.slot;
+        this.username = builder.username;
+        this.capacity = builder.capacity;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public Time getSlot() {
+        return slot;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // the open slots on d between from and to (inclusive), in slot order; an index seek on the primary key
+    public static List<Availability> searchSlots(Date d, Time from, Time to) throws SQLException {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+        try {
+            return searchSlots(pool, con, d, from, to);
+        } finally {
+            pool.returnConnection(con);
+        }
+    }
+
+    static List<Availability> searchSlots(ConnectionPool pool, Connection con, Date d, Time from, Time to)
+            throws SQLException {
+        List<Availability> slots = new ArrayList<Availability>();
+        try (PreparedStatement statement = pool.prepare(con, Query.AVAILABILITY_SLOTS)) {
+            statement.setDate(1, d);
+            statement.setTime(2, from);
+            statement.setTime(3, to);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    slots.add(new AvailabilityBuilder(d, resultSet.getString("Username"))
+                            .slot(resultSet.getTime("Slot"))
+                            .capacity(resultSet.getInt("Capacity"))
+                            .build());
+                }
+            }
+        }
+        return slots;
+    }
+
+    // takes one place in a slot; a slot that becomes full is deleted
+    static Claim claim(ConnectionPool pool, Connection con, Date d, Time slot, String caregiver)
+            throws SQLException {
+        try (PreparedStatement claimStatement = pool.prepare(con, Query.AVAILABILITY_CLAIM)) {
+            claimStatement.setDate(1, d);
+            claimStatement.setTime(2, slot);
+            claimStatement.setString(3, caregiver);
+            if (claimStatement.executeUpdate() == 0) {
+                return Claim.UNAVAILABLE;
+            }
+        }
+        try (PreparedStatement purgeStatement = pool.prepare(con, Query.AVAILABILITY_PURGE)) {
+            purgeStatement.setDate(1, d);
+            purgeStatement.setTime(2, slot);
+            purgeStatement.setString(3, caregiver);
+            return purgeStatement.executeUpdate() == 1 ? Claim.FILLED : Claim.CLAIMED;
+        }
+    }
+
+    // gives a place back to a slot, recreating the slot if it had filled up
+    static void release(ConnectionPool pool, Connection con, Date d, Time slot, String caregiver)
+            throws SQLException {
+        try (PreparedStatement releaseStatement = pool.prepare(con, Query.AVAILABILITY_RELEASE)) {
+            releaseStatement.setDate(1, d);
+            releaseStatement.setTime(2, slot);
+            releaseStatement.setString(3, caregiver);
+            if (releaseStatement.executeUpdate() == 1) {
+                return;
+            }
+        }
+        try (PreparedStatement insertStatement = pool.prepare(con, Query.AVAILABILITY_INSERT)) {
+            insertStatement.setDate(1, d);
+            insertStatement.setTime(2, slot);
+            insertStatement.setString(3, caregiver);
+            insertStatement.setInt(4, 1);
+            insertStatement.executeUpdate();
+        }
+    }
+
+    // true if the caregiver still has an open slot on d
+    static boolean hasSlots(ConnectionPool pool, Connection con, Date d, String caregiver) throws SQLException {
+        try (PreparedStatement statement = pool.prepare(con, Query.AVAILABILITY_CAREGIVER_DAY)) {
+            statement.setString(1, caregiver);
+            statement.setDate(2, d);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionPool;
+import scheduler.db.Query;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process copy of the Availabilities table, keyed by epoch day, so that schedule searches do not need a
+ * database round-trip.
+ *
+ * Each day maps to an immutable, sorted array of compact caregiver ids. Readers only do a map lookup and never
+ * block. Writers replace a day's array atomically. Every published day carries a version, and a refresh from
+ * the database only replaces a day whose version has not changed since the refresh started, so local writes
+ * made while a refresh is running are never lost. The index is refreshed periodically to pick up writes made by
+ * other processes, and reservations still claim rows in the database, so a stale entry can cause a retry but
+ * never a double booking.
+ */
+public class AvailabilityIndex {
+    private static final AvailabilityIndex INSTANCE = new AvailabilityIndex(
+            Long.getLong("scheduler.availabilityIndex.refreshMillis", 30000L));
+
+    private static final int[] NONE = new int[0];
+
+    private final Map<Long, Day> days = new ConcurrentHashMap<Long, Day>();
+    private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private volatile String[] names = new String[16];
+    private int nextId = 0;
+
+    private final AtomicLong version = new AtomicLong();
+    private final long refreshMillis;
+    private volatile boolean loaded = false;
+    private ScheduledExecutorService refresher;
+
+    public static AvailabilityIndex getInstance() {
+        return INSTANCE;
+    }
+
+    private AvailabilityIndex(long refreshMillis) {
+        this.refreshMillis = refreshMillis;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // the number of changes applied to the index so far
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Loads the whole Availabilities table and starts serving searches from memory. Once loaded, the index is
+     * refreshed every scheduler.availabilityIndex.refreshMillis milliseconds (0 disables refreshing).
+     */
+    public synchronized void load() throws SQLException {
+        refresh();
+        loaded = true;
+        if (refresher == null && refreshMillis > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "availability-index-refresher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refresher.scheduleWithFixedDelay(() -> {
+                try {
+                    refresh();
+                } catch (SQLException e) {
+                    // keep serving the current copy and try again on the next run
+                }
+            }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // returns the caregivers available on d, without touching the database
+    public List<String> search(Date d) {
+        Day day = days.get(d.toLocalDate().toEpochDay());
+        return toNames(day == null ? NONE : day.caregivers);
+    }
+
+    // delivers the days from..to that have available caregivers in date order, stopping after limit days;
+    // returns the number of days delivered
+    public int search(Date from, Date to, int limit, ScheduleView.DayConsumer consumer) {
+        long last = to.toLocalDate().toEpochDay();
+        int count = 0;
+        for (long epochDay = from.toLocalDate().toEpochDay(); epochDay <= last && count < limit; epochDay++) {
+            Day day = days.get(epochDay);
+            if (day != null) {
+                consumer.accept(Date.valueOf(LocalDate.ofEpochDay(epochDay)), toNames(day.caregivers));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private List<String> toNames(int[] caregivers) {
+        String[] names = this.names;
+        List<String> availableCaregiver = new ArrayList<String>(caregivers.length);
+        for (int id : caregivers) {
+            availableCaregiver.add(names[id]);
+        }
+        return availableCaregiver;
+    }
+
+    public void add(Date d, String caregiver) {
+        int id = idOf(caregiver);
+        days.compute(d.toLocalDate().toEpochDay(), (key, day) -> {
+            int[] caregivers = day == null ? NONE : day.caregivers;
+            int pos = Arrays.binarySearch(caregivers, id);
+            if (pos >= 0) {
+                return day;
+            }
+            pos = -pos - 1;
+            int[] updated = new int[caregivers.length + 1];
+            System.arraycopy(caregivers, 0, updated, 0, pos);
+            updated[pos] = id;
+            System.arraycopy(caregivers, pos, updated, pos + 1, caregivers.length - pos);
+            return new Day(updated, version.incrementAndGet());
+        });
+    }
+
+    public void remove(Date d, String caregiver) {
+        Integer id = ids.get(caregiver);
+        if (id == null) {
+            return;
+        }
+        days.computeIfPresent(d.toLocalDate().toEpochDay(), (key, day) -> {
+            int pos = Arrays.binarySearch(day.caregivers, id);
+            if (pos < 0) {
+                return day;
+            }
+            int[] updated = new int[day.caregivers.length - 1];
+            System.arraycopy(day.caregivers, 0, updated, 0, pos);
+            System.arraycopy(day.caregivers, pos + 1, updated, pos, updated.length - pos);
+            return updated.length == 0 ? null : new Day(updated, version.incrementAndGet());
+        });
+    }
+
+    // reloads a single day, e.g. after a reservation found the index out of date
+    public void refresh(Date d) throws SQLException {
+        long epochDay = d.toLocalDate().toEpochDay();
+        Day before = days.get(epochDay);
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+
+        List<String> caregivers = new ArrayList<String>();
+        try (PreparedStatement statement = pool.prepare(con, Query.AVAILABILITY_BY_TIME)) {
+            statement.setDate(1, d);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    caregivers.add(resultSet.getString("Username"));
+                }
+            }
+        } finally {
+            pool.returnConnection(con);
+        }
+        publish(epochDay, before, toDay(caregivers));
+    }
+
+    // reloads every day, keeping any day that was changed locally while the query ran
+    public void refresh() throws SQLException {
+        Map<Long, Day> before = new HashMap<Long, Day>(days);
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+
+        Map<Long, List<String>> loadedDays = new HashMap<Long, List<String>>();
+        try (PreparedStatement statement = pool.prepare(con, Query.AVAILABILITY_ALL);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                long epochDay = resultSet.getDate("Time").toLocalDate().toEpochDay();
+                loadedDays.computeIfAbsent(epochDay, key -> new ArrayList<String>())
+                        .add(resultSet.getString("Username"));
+            }
+        } finally {
+            pool.returnConnection(con);
+        }
+        for (Map.Entry<Long, List<String>> entry : loadedDays.entrySet()) {
+            publish(entry.getKey(), before.remove(entry.getKey()), toDay(entry.getValue()));
+        }
+        // days that no longer have any availability
+        for (Map.Entry<Long, Day> entry : before.entrySet()) {
+            publish(entry.getKey(), entry.getValue(), null);
+        }
+    }
+
+    // installs a freshly loaded day unless the day has changed since the load started
+    private void publish(long epochDay, Day expected, Day loaded) {
+        long expectedVersion = expected == null ? 0 : expected.version;
+        days.compute(epochDay, (key, current) -> {
+            long currentVersion = current == null ? 0 : current.version;
+            return currentVersion == expectedVersion ? loaded : current;
+        });
+    }
+
+    private Day toDay(List<String> caregivers) {
+        if (caregivers.isEmpty()) {
+            return null;
+        }
+        int[] loaded = new int[caregivers.size()];
+        for (int i = 0; i < loaded.length; i++) {
+            loaded[i] = idOf(caregivers.get(i));
+        }
+        Arrays.sort(loaded);
+        return new Day(loaded, version.incrementAndGet());
+    }
+
+    // caregiver usernames are interned to small ints so that each day is a compact int array
+    private int idOf(String caregiver) {
+        Integer id = ids.get(caregiver);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(caregiver);
+            if (id == null) {
+                id = nextId++;
+                String[] names = this.names;
+                if (id == names.length) {
+                    names = Arrays.copyOf(names, names.length * 2);
+                }
+                names[id] = caregiver;
+                // publish the grown array before the id becomes visible in the map
+                this.names = names;
+                ids.put(caregiver, id);
+            }
+            return id;
+        }
+    }
+
+    private static class Day {
+        private final int[] caregivers;
+        private final long version;
+
+        private Day(int[] caregivers, long version) {
+            this.caregivers = caregivers;
+            this.version = version;
+        }
+    }
+}
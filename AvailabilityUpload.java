@@ -0,0 +1,32 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+// The outcome of uploading a caregiver's availability for one day
+public class AvailabilityUpload {
+    public enum Status {
+        UPLOADED,
+        ALREADY_AVAILABLE,
+        HAS_APPOINTMENT
+    }
+
+    private final Date date;
+    private final Status status;
+
+    public AvailabilityUpload(Date date, Status status) {
+        this.date = date;
+        this.status = status;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isUploaded() {
+        return status == Status.UPLOADED;
+    }
+}
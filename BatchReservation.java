@@ -0,0 +1,448 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionPool;
+import scheduler.db.Query;
+import scheduler.util.AppointmentIdGenerator;
+import scheduler.util.Collation;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Books many patients at once, e.g. for a school or workplace drive.
+ *
+ * The engine takes one snapshot of the open slots in the requested windows, the known patients and the vaccine
+ * stock, then assigns requests greedily in memory. The most constrained requests (shortest window) go first.
+ * Each one gets the earliest date in its window with a free slot, and on that date the earliest slot of the
+ * caregiver with the fewest assignments in this batch. The assignments are then written in chunks. Each chunk is
+ * one transaction that claims the slots and inserts the appointments as JDBC batches. Doses are taken from
+ * the in-memory inventory, which writes them back like any other reservation. An assignment whose slot was
+ * filled concurrently, or whose vaccine ran out in the meantime, is dropped and the rest of its chunk is
+ * retried.
+ */
+public class BatchReservation {
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private final List<Request> requests;
+    private final int chunkSize;
+    private final Reservation[] results;
+
+    private int placed = 0;
+    private long elapsedNanos = 0;
+
+    // an open slot in the snapshot; capacity counts down as requests are assigned to it
+    private static class OpenSlot {
+        private final Time slot;
+        private final String caregiver;
+        private int capacity;
+
+        private OpenSlot(Time slot, String caregiver, int capacity) {
+            this.slot = slot;
+            this.caregiver = caregiver;
+            this.capacity = capacity;
+        }
+    }
+
+    // one patient asking for a vaccine on any date from..to (inclusive)
+    public static class Request {
+        private final String patientName;
+        private final String vaccineName;
+        private final Date from;
+        private final Date to;
+
+        public Request(String patientName, String vaccineName, Date from, Date to) {
+            if (to.before(from)) {
+                throw new IllegalArgumentException("The end date cannot be before the start date!");
+            }
+            this.patientName = patientName;
+            this.vaccineName = vaccineName;
+            this.from = from;
+            this.to = to;
+        }
+
+        public String getPatientName() {
+            return patientName;
+        }
+
+        public String getVaccineName() {
+            return vaccineName;
+        }
+
+        public Date getFrom() {
+            return from;
+        }
+
+        public Date getTo() {
+            return to;
+        }
+    }
+
+    public BatchReservation(List<Request> requests, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive!");
+        }
+        this.requests = new ArrayList<Request>(requests);
+        this.chunkSize = chunkSize;
+        this.results = new Reservation[requests.size()];
+    }
+
+    /**
+     * Assigns and books every request. Chunks committed before a database error stay booked, and their results
+     * are available from {@link #getReservations()} even if this throws.
+     */
+    public void run() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (requests.isEmpty()) {
+                return;
+            }
+            commit(assign());
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    // the greedy allocation against one snapshot; returns the indexes of the assigned requests
+    private List<Integer> assign() throws SQLException {
+        Date from = requests.get(0).from;
+        Date to = requests.get(0).to;
+        for (Request request : requests) {
+            from = request.from.before(from) ? request.from : from;
+            to = request.to.after(to) ? request.to : to;
+        }
+        Map<Date, List<OpenSlot>> free = loadSlots(from, to);
+        Set<String> patients = loadPatients();
+        VaccineInventory inventory = VaccineInventory.getInstance();
+        Map<String, Integer> stock = new HashMap<String, Integer>();
+        Map<String, Integer> load = new HashMap<String, Integer>();
+
+        List<Integer> order = new ArrayList<Integer>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.<Integer>comparingLong(i -> window(requests.get(i)))
+                .thenComparing(i -> requests.get(i).from));
+
+        List<Integer> assigned = new ArrayList<Integer>();
+        for (int i : order) {
+            Request request = requests.get(i);
+            if (!patients.contains(Collation.key(request.patientName))) {
+                results[i] = unplaced(request, Reservation.Outcome.NO_SUCH_PATIENT);
+                continue;
+            }
+            // names compare like the database's collation, so "Pfizer" and "pfizer" share one stock
+            String vaccine = Collation.key(request.vaccineName);
+            Integer doses = stock.get(vaccine);
+            if (doses == null) {
+                doses = inventory.getDoses(request.vaccineName);
+                stock.put(vaccine, doses);
+            }
+            if (doses < 0) {
+                results[i] = unplaced(request, Reservation.Outcome.NO_SUCH_VACCINE);
+                continue;
+            } else if (doses == 0) {
+                results[i] = unplaced(request, Reservation.Outcome.OUT_OF_STOCK);
+                continue;
+            }
+            Date day = null;
+            OpenSlot open = null;
+            for (Map.Entry<Date, List<OpenSlot>> entry : free.entrySet()) {
+                if (entry.getKey().before(request.from) || entry.getValue().isEmpty()) {
+                    continue;
+                }
+                if (entry.getKey().after(request.to)) {
+                    break;
+                }
+                day = entry.getKey();
+                open = leastLoaded(entry.getValue(), load);
+                break;
+            }
+            if (open == null) {
+                results[i] = unplaced(request, Reservation.Outcome.NO_CAREGIVER);
+                continue;
+            }
+            List<OpenSlot> daySlots = free.get(day);
+            if (--open.capacity == 0) {
+                daySlots.remove(open);
+            }
+            load.merge(open.caregiver, 1, Integer::sum);
+            stock.put(vaccine, doses - 1);
+            results[i] = new Reservation.ReservationBuilder(Reservation.Outcome.RESERVED, request.patientName,
+                    request.vaccineName, day)
+                    .caregiver(open.caregiver)
+                    .slot(open.slot)
+                    .dayFilled(!hasSlots(daySlots, open.caregiver))
+                    .build();
+            assigned.add(i);
+        }
+        // commit in key order so that the chunks touch Availabilities roughly sequentially
+        assigned.sort(Comparator.<Integer, Date>comparing(i -> (Date) results[i].getDate())
+                .thenComparing(i -> results[i].getSlot()));
+        return assigned;
+    }
+
+    private void commit(List<Integer> assigned) throws SQLException {
+        try {
+            for (int start = 0; start < assigned.size(); start += chunkSize) {
+                List<Integer> chunk = new ArrayList<Integer>(assigned.subList(start,
+                        Math.min(start + chunkSize, assigned.size())));
+                commitChunk(chunk);
+            }
+        } catch (SQLException e) {
+            // assignments that were never committed are not reservations
+            for (int i : assigned) {
+                if (results[i].isReserved() && results[i].getAppointmentID() == null) {
+                    results[i] = unplaced(requests.get(i), Reservation.Outcome.CONFLICT);
+                }
+            }
+            throw e;
+        }
+    }
+
+    // Writes one chunk in a single transaction, dropping the assignments that can no longer be honoured. The chunk
+    // holds the booking locks of all its caregiver dates and vaccines until it commits or rolls back, like an
+    // interactive reservation, and gives back every dose it took unless it commits.
+    private void commitChunk(List<Integer> chunk) throws SQLException {
+        VaccineInventory inventory = VaccineInventory.getInstance();
+        AppointmentIdGenerator ids = AppointmentIdGenerator.getInstance();
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+        try (BookingLocks.Guard guard = BookingLocks.getInstance().newGuard()) {
+            con.setAutoCommit(false);
+            while (!chunk.isEmpty()) {
+                lockAll(guard, chunk);
+                List<Integer> acquired = new ArrayList<Integer>(chunk.size());
+                List<Integer> conflicts = new ArrayList<Integer>();
+                Map<Integer, String> appointmentIDs = new HashMap<Integer, String>();
+                boolean committed = false;
+                try {
+                    for (int i : chunk) {
+                        if (inventory.tryAcquire(results[i].getVaccineName())
+                                == VaccineInventory.Acquisition.ACQUIRED) {
+                            acquired.add(i);
+                        } else {
+                            results[i] = unplaced(requests.get(i), Reservation.Outcome.OUT_OF_STOCK);
+                        }
+                    }
+                    chunk = acquired;
+                    try (PreparedStatement claimStatement = pool.prepare(con, Query.AVAILABILITY_CLAIM)) {
+                        for (int i : chunk) {
+                            claimStatement.setDate(1, (Date) results[i].getDate());
+                            claimStatement.setTime(2, results[i].getSlot());
+                            claimStatement.setString(3, results[i].getCaregiverName());
+                            claimStatement.addBatch();
+                        }
+                        int[] claimed = claimStatement.executeBatch();
+                        for (int j = 0; j < claimed.length; j++) {
+                            if (claimed[j] == 0) {
+                                conflicts.add(chunk.get(j));
+                            }
+                        }
+                    }
+                    if (conflicts.isEmpty()) {
+                        // slots whose last place was just taken are no longer open
+                        try (PreparedStatement purgeStatement = pool.prepare(con, Query.AVAILABILITY_PURGE)) {
+                            for (int i : chunk) {
+                                purgeStatement.setDate(1, (Date) results[i].getDate());
+                                purgeStatement.setTime(2, results[i].getSlot());
+                                purgeStatement.setString(3, results[i].getCaregiverName());
+                                purgeStatement.addBatch();
+                            }
+                            purgeStatement.executeBatch();
+                        }
+                        try (PreparedStatement reserveStatement = pool.prepare(con, Query.APPOINTMENT_INSERT)) {
+                            for (int i : chunk) {
+                                String appointmentID = ids.nextId();
+                                appointmentIDs.put(i, appointmentID);
+                                reserveStatement.setString(1, results[i].getCaregiverName());
+                                reserveStatement.setString(2, results[i].getPatientName());
+                                reserveStatement.setString(3, results[i].getVaccineName());
+                                reserveStatement.setDate(4, (Date) results[i].getDate());
+                                reserveStatement.setString(5, appointmentID);
+                                reserveStatement.setTime(6, results[i].getSlot());
+                                reserveStatement.addBatch();
+                            }
+                            reserveStatement.executeBatch();
+                        }
+                        con.commit();
+                        committed = true;
+                    } else {
+                        con.rollback();
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    // roll back while the locks are still held
+                    con.rollback();
+                    throw e;
+                } finally {
+                    if (!committed) {
+                        // a conflict or a failure, possibly halfway through acquiring: every dose taken goes back
+                        release(acquired);
+                    }
+                    guard.release();
+                }
+                if (committed) {
+                    booked(chunk, appointmentIDs);
+                    return;
+                }
+                // retry the chunk without the slots someone else filled first
+                for (int i : conflicts) {
+                    results[i] = unplaced(requests.get(i), Reservation.Outcome.CONFLICT);
+                }
+                chunk.removeAll(conflicts);
+            }
+        } finally {
+            pool.returnConnection(con);
+        }
+    }
+
+    private void lockAll(BookingLocks.Guard guard, List<Integer> chunk) {
+        List<String> caregivers = new ArrayList<String>(chunk.size());
+        List<Date> dates = new ArrayList<Date>(chunk.size());
+        List<String> vaccines = new ArrayList<String>(chunk.size());
+        for (int i : chunk) {
+            caregivers.add(results[i].getCaregiverName());
+            dates.add((Date) results[i].getDate());
+            vaccines.add(results[i].getVaccineName());
+        }
+        guard.lockAll(caregivers, dates, vaccines);
+    }
+
+    private void booked(List<Integer> chunk, Map<Integer, String> appointmentIDs) throws SQLException {
+        VaccineInventory inventory = VaccineInventory.getInstance();
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        for (int i : chunk) {
+            Reservation assignment = results[i];
+            inventory.booked(assignment.getVaccineName());
+            // the index lists caregivers per day, so it only changes with the caregiver's last slot that day
+            if (assignment.isDayFilled()) {
+                index.remove((Date) assignment.getDate(), assignment.getCaregiverName());
+            }
+            results[i] = new Reservation.ReservationBuilder(Reservation.Outcome.RESERVED,
+                    assignment.getPatientName(), assignment.getVaccineName(), assignment.getDate())
+                    .caregiver(assignment.getCaregiverName())
+                    .slot(assignment.getSlot())
+                    .appointmentID(appointmentIDs.get(i))
+                    .build();
+            placed++;
+        }
+    }
+
+    private void release(List<Integer> chunk) throws SQLException {
+        VaccineInventory inventory = VaccineInventory.getInstance();
+        for (int i : chunk) {
+            inventory.release(results[i].getVaccineName());
+        }
+    }
+
+    private static long window(Request request) {
+        return request.to.toLocalDate().toEpochDay() - request.from.toLocalDate().toEpochDay();
+    }
+
+    // the slots are in slot order, so this is the earliest slot of the least loaded caregiver
+    private static OpenSlot leastLoaded(List<OpenSlot> slots, Map<String, Integer> load) {
+        OpenSlot best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (OpenSlot slot : slots) {
+            int current = load.getOrDefault(slot.caregiver, 0);
+            if (current < bestLoad) {
+                best = slot;
+                bestLoad = current;
+            }
+        }
+        return best;
+    }
+
+    private static boolean hasSlots(List<OpenSlot> slots, String caregiver) {
+        for (OpenSlot slot : slots) {
+            if (slot.caregiver.equals(caregiver)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the open slots from..to grouped by date, each date's slots in slot order
+    private static Map<Date, List<OpenSlot>> loadSlots(Date from, Date to) throws SQLException {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+
+        Map<Date, List<OpenSlot>> slots = new LinkedHashMap<Date, List<OpenSlot>>();
+        try (PreparedStatement statement = pool.prepare(con, Query.AVAILABILITY_SLOTS_RANGE)) {
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    slots.computeIfAbsent(resultSet.getDate("Time"), day -> new ArrayList<OpenSlot>())
+                            .add(new OpenSlot(resultSet.getTime("Slot"), resultSet.getString("Username"),
+                                    resultSet.getInt("Capacity")));
+                }
+            }
+            return slots;
+        } finally {
+            pool.returnConnection(con);
+        }
+    }
+
+    // the collation keys of all patients, see Collation
+    private static Set<String> loadPatients() throws SQLException {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+
+        Set<String> patients = new HashSet<String>();
+        try (PreparedStatement statement = pool.prepare(con, Query.PATIENT_USERNAMES);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                patients.add(Collation.key(resultSet.getString("Username")));
+            }
+            return patients;
+        } finally {
+            pool.returnConnection(con);
+        }
+    }
+
+    private static Reservation unplaced(Request request, Reservation.Outcome outcome) {
+        return new Reservation.ReservationBuilder(outcome, request.patientName, request.vaccineName, request.from)
+                .build();
+    }
+
+    // one result per request, in request order; RESERVED results carry the booked date, slot, caregiver and id
+    public List<Reservation> getReservations() {
+        List<Reservation> reservations = new ArrayList<Reservation>(results.length);
+        Collections.addAll(reservations, results);
+        return reservations;
+    }
+
+    public int getRequested() {
+        return requests.size();
+    }
+
+    public int getPlaced() {
+        return placed;
+    }
+
+    public double getFillRate() {
+        return requests.isEmpty() ? 0 : (double) placed / requests.size();
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    // placed appointments per second
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : placed * 1e9 / elapsedNanos;
+    }
+}
@@ -0,0 +1,102 @@
+package scheduler.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of strings that answers "definitely absent" or "maybe present" from a fixed-size bit array. It is sized
+ * for an expected number of entries and a target false-positive probability; adding more entries than expected
+ * raises the actual probability, which {@link #getExpectedFpp()} reports.
+ *
+ * Adds and lookups are lock-free and may run concurrently. A lookup that runs concurrently with the add of the
+ * same string may miss it.
+ */
+public class BloomFilter {
+    private static final double LN2 = Math.log(2);
+
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int hashes;
+    private final AtomicLong count = new AtomicLong();
+
+    public BloomFilter(long expectedEntries, double fpp) {
+        if (expectedEntries <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("Invalid Bloom filter: " + expectedEntries + " entries at fpp " + fpp);
+        }
+        // the optimal sizes: m = -n ln p / (ln 2)^2 bits and k = m / n ln 2 hash functions
+        long m = (long) Math.ceil(-expectedEntries * Math.log(fpp) / (LN2 * LN2));
+        long wordCount = Math.max(1, (m + 63) >>> 6);
+        if (wordCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter too large: " + m + " bits");
+        }
+        this.words = new AtomicLongArray((int) wordCount);
+        this.bits = wordCount << 6;
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedEntries * LN2));
+    }
+
+    public void add(String value) {
+        long h1 = hash(value);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            long mask = 1L << bit;
+            int word = (int) (bit >>> 6);
+            long current = words.get(word);
+            while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+                current = words.get(word);
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    // false means the value was never added
+    public boolean mightContain(String value) {
+        long h1 = hash(value);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the number of add calls, counting repeated values each time
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getBits() {
+        return bits;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+
+    // the false-positive probability for the entries added so far: (1 - e^(-kn/m))^k
+    public double getExpectedFpp() {
+        return Math.pow(1 - Math.exp(-hashes * (double) count.get() / bits), hashes);
+    }
+
+    // FNV-1a over the characters, finished with a 64-bit mixer so that every bit depends on the whole input
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    // the MurmurHash3 finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,121 @@
+package scheduler.model;
+
+import scheduler.util.Collation;
+import scheduler.util.LockStripes;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * In-process locks that serialize only the bookings that can conflict, so that sessions sharing one JVM do not
+ * race each other into database deadlocks and retries. Reservations and cancellations lock the caregiver's date
+ * exclusively; bookings of one vaccine share its lock, which dose adjustments take exclusively. Keys are striped
+ * over scheduler.locks.stripes locks per kind (default 256), so unrelated bookings almost always proceed in
+ * parallel. The database stays the authority; these locks only avoid conflicts it would otherwise resolve. Names
+ * are hashed by {@link Collation#key}, so spellings the database treats as one name share a lock.
+ *
+ * Deadlock freedom comes from the lock order: caregiver-date stripes come before vaccine stripes, and a thread
+ * that holds several stripes of one kind took them in ascending stripe order. Single bookings hold at most one
+ * stripe of each kind; only batches hold more. A {@link Guard} gives up what it holds before it locks anything
+ * else.
+ */
+public class BookingLocks {
+    private static final BookingLocks INSTANCE = new BookingLocks(Integer.getInteger("scheduler.locks.stripes", 256));
+
+    private final LockStripes slots;
+    private final LockStripes vaccines;
+
+    public static BookingLocks getInstance() {
+        return INSTANCE;
+    }
+
+    public BookingLocks(int stripes) {
+        this.slots = new LockStripes(stripes);
+        this.vaccines = new LockStripes(stripes);
+    }
+
+    public Guard newGuard() {
+        return new Guard();
+    }
+
+    private int slotStripe(String caregiver, Date d) {
+        return slots.stripeOf(31 * Collation.key(caregiver).hashCode() + d.hashCode());
+    }
+
+    private int vaccineStripe(String vaccineName) {
+        return vaccines.stripeOf(Collation.key(vaccineName).hashCode());
+    }
+
+    /**
+     * The booking locks held by one operation. Not thread-safe: a guard belongs to the thread that created it,
+     * and closing it releases everything it holds.
+     */
+    public class Guard implements AutoCloseable {
+        // in the order they were taken
+        private final Deque<Lock> held = new ArrayDeque<Lock>(2);
+
+        private Guard() {
+        }
+
+        // a reservation: the caregiver's date exclusively, then the vaccine shared
+        public void lock(String caregiver, Date d, String vaccineName) {
+            release();
+            take(slots.get(slotStripe(caregiver, d)).writeLock());
+            take(vaccines.get(vaccineStripe(vaccineName)).readLock());
+        }
+
+        // a cancellation: the caregiver's date exclusively
+        public void lockSlot(String caregiver, Date d) {
+            release();
+            take(slots.get(slotStripe(caregiver, d)).writeLock());
+        }
+
+        // a dose adjustment: the vaccine exclusively, waiting for its uncommitted bookings
+        public void lockVaccine(String vaccineName) {
+            release();
+            take(vaccines.get(vaccineStripe(vaccineName)).writeLock());
+        }
+
+        // a batch of reservations, booking i being caregivers[i] on dates[i]: every caregiver date exclusively,
+        // then every vaccine shared, each kind in ascending stripe order
+        public void lockAll(List<String> caregivers, List<? extends Date> dates, List<String> vaccineNames) {
+            release();
+            SortedSet<Integer> slotStripes = new TreeSet<Integer>();
+            for (int i = 0; i < caregivers.size(); i++) {
+                slotStripes.add(slotStripe(caregivers.get(i), dates.get(i)));
+            }
+            SortedSet<Integer> vaccineStripes = new TreeSet<Integer>();
+            for (String vaccineName : vaccineNames) {
+                vaccineStripes.add(vaccineStripe(vaccineName));
+            }
+            for (int stripe : slotStripes) {
+                take(slots.get(stripe).writeLock());
+            }
+            for (int stripe : vaccineStripes) {
+                take(vaccines.get(stripe).readLock());
+            }
+        }
+
+        private void take(Lock lock) {
+            lock.lock();
+            held.push(lock);
+        }
+
+        // releases in the reverse of the lock order
+        public void release() {
+            while (!held.isEmpty()) {
+                held.pop().unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+}
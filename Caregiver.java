@@ -1,13 +1,32 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.AsyncExecutor;
+import scheduler.db.ConnectionPool;
+import scheduler.db.Query;
+import scheduler.util.Metrics;
+import scheduler.util.OperationStats;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
 import java.sql.*;
 import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 public class Caregiver {
+    // database calls, each timed from borrowing the connection to returning it
+    private static final OperationStats SAVE = Metrics.getInstance().operation("caregiver.save");
+    private static final OperationStats UPLOAD_AVAILABILITY =
+            Metrics.getInstance().operation("caregiver.uploadAvailability");
+    private static final OperationStats CANCEL = Metrics.getInstance().operation("caregiver.cancel");
+    private static final OperationStats SHOW_APPOINTMENTS =
+            Metrics.getInstance().operation("caregiver.showAppointments");
+    private static final OperationStats GET = Metrics.getInstance().operation("caregiver.get");
+    private static final OperationStats REHASH = Metrics.getInstance().operation("caregiver.rehash");
+
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
@@ -38,175 +57,205 @@ public class Caregiver {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        long start = System.nanoTime();
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
 
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
+        try (PreparedStatement statement = pool.prepare(con, Query.CAREGIVER_INSERT)) {
             statement.setString(1, this.username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
             statement.executeUpdate();
+            UsernameRegistry.getInstance().added(UsernameRegistry.Role.CAREGIVER, this.username);
         } catch (SQLException e) {
-            throw new SQLException();
+            SAVE.failed(e);
+            throw e;
         } finally {
-            cm.closeConnection();
+            pool.returnConnection(con);
+            SAVE.record(System.nanoTime() - start);
         }
     }
 
-    public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    public AvailabilityUpload uploadAvailability(Date d) throws SQLException {
+        return uploadAvailability(d, d, EnumSet.allOf(DayOfWeek.class)).get(0);
+    }
+
+    // Uploads availability for every day from..to (inclusive) that falls on one of the given weekdays, opening every
+    // slot of the SlotSchedule on each day. Conflicts are found with one range query per table, and the remaining
+    // days are inserted as one batch in one transaction. Returns one result per requested day, in date order.
+    public List<AvailabilityUpload> uploadAvailability(Date from, Date to, Set<DayOfWeek> weekdays)
+            throws SQLException {
+        if (to.before(from)) {
+            throw new IllegalArgumentException("The end date cannot be before the start date!");
+        }
+        SlotSchedule schedule = SlotSchedule.getInstance();
+        long start = System.nanoTime();
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
 
-        String searchAvailability = "SELECT * FROM Availabilities WHERE Time = ? AND Username = ?";
-        String searchAppointment = "SELECT * FROM Appointments WHERE CaregiverName = ? AND Date = ?";
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
+        List<AvailabilityUpload> results = new ArrayList<AvailabilityUpload>();
         try {
-            PreparedStatement searchStatement = con.prepareStatement(searchAvailability);
-            searchStatement.setDate(1, d);
-            searchStatement.setString(2, this.username);
-            ResultSet resultSet = searchStatement.executeQuery();
-            if (resultSet.isBeforeFirst()) {
-                System.out.println("You are already available at this time!");
-                System.out.println("Failed to upload availability");
-                return;
+            con.setAutoCommit(false);
+            Set<LocalDate> available = searchDates(pool, con, Query.AVAILABILITY_CAREGIVER_RANGE, "Time", from, to);
+            Set<LocalDate> booked = searchDates(pool, con, Query.APPOINTMENT_CAREGIVER_RANGE, "Date", from, to);
+            try (PreparedStatement addStatement = pool.prepare(con, Query.AVAILABILITY_INSERT)) {
+                LocalDate last = to.toLocalDate();
+                for (LocalDate day = from.toLocalDate(); !day.isAfter(last); day = day.plusDays(1)) {
+                    if (!weekdays.contains(day.getDayOfWeek())) {
+                        continue;
+                    }
+                    Date date = Date.valueOf(day);
+                    if (available.contains(day)) {
+                        results.add(new AvailabilityUpload(date, AvailabilityUpload.Status.ALREADY_AVAILABLE));
+                    } else if (booked.contains(day)) {
+                        results.add(new AvailabilityUpload(date, AvailabilityUpload.Status.HAS_APPOINTMENT));
+                    } else {
+                        for (Time slot : schedule.getStarts()) {
+                            addStatement.setDate(1, date);
+                            addStatement.setTime(2, slot);
+                            addStatement.setString(3, this.username);
+                            addStatement.setInt(4, schedule.getCapacity());
+                            addStatement.addBatch();
+                        }
+                        results.add(new AvailabilityUpload(date, AvailabilityUpload.Status.UPLOADED));
+                    }
+                }
+                addStatement.executeBatch();
             }
-            PreparedStatement searchStatement2 = con.prepareStatement(searchAppointment);
-            searchStatement2.setString(1, this.username);
-            searchStatement2.setDate(2, d);
-            ResultSet resultSet2 = searchStatement2.executeQuery();
-            if (resultSet2.isBeforeFirst()) {
-                System.out.println("You have an appointment at that time!");
-                System.out.println("Failed to upload availability");
-                return;
+            con.commit();
+            AvailabilityIndex index = AvailabilityIndex.getInstance();
+            for (AvailabilityUpload upload : results) {
+                if (upload.isUploaded()) {
+                    index.add(upload.getDate(), this.username);
+                }
             }
-            PreparedStatement addStatement = con.prepareStatement(addAvailability);
-            addStatement.setDate(1, d);
-            addStatement.setString(2, this.username);
-            addStatement.executeUpdate();
-            System.out.println("Availability uploaded!");
+            return results;
         } catch (SQLException e) {
-            throw new SQLException();
+            UPLOAD_AVAILABILITY.failed(e);
+            throw e;
         } finally {
-            cm.closeConnection();
+            pool.returnConnection(con);
+            UPLOAD_AVAILABILITY.record(System.nanoTime() - start);
         }
     }
 
-    public List<String> searchAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    public CompletableFuture<List<AvailabilityUpload>> uploadAvailabilityAsync(Date from, Date to,
+                                                                             Set<DayOfWeek> weekdays) {
+        return AsyncExecutor.getInstance().supply(() -> uploadAvailability(from, to, weekdays));
+    }
 
-        String searchAvailability = "SELECT Username FROM Availabilities WHERE Time = ?";
-        List<String> availableCaregiver = new ArrayList<String>();
-        try {
-            PreparedStatement statement = con.prepareStatement(searchAvailability);
-            statement.setDate(1, d);
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                String caregiver = resultSet.getString("Username");
-                availableCaregiver.add(caregiver);
+    private Set<LocalDate> searchDates(ConnectionPool pool, Connection con, Query query, String column, Date from,
+                                       Date to) throws SQLException {
+        try (PreparedStatement statement = pool.prepare(con, query)) {
+            statement.setString(1, this.username);
+            statement.setDate(2, from);
+            statement.setDate(3, to);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                Set<LocalDate> dates = new HashSet<LocalDate>();
+                while (resultSet.next()) {
+                    dates.add(resultSet.getDate(column).toLocalDate());
+                }
+                return dates;
             }
-            return availableCaregiver;
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
         }
     }
 
+    public List<String> searchAvailability(Date d) throws SQLException {
+        return ScheduleView.searchCaregivers(d);
+    }
+
+    public CompletableFuture<List<String>> searchAvailabilityAsync(Date d) {
+        return AsyncExecutor.getInstance().supply(() -> searchAvailability(d));
+    }
+
     public String cancelAppointment(String appointmentID) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        long start = System.nanoTime();
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
 
-        String searchAppointment = "SELECT CaregiverName, Date, VaccineName FROM Appointments WHERE AppointmentID = ?";
-        String cancelAppointment = "DELETE FROM Appointments WHERE AppointmentID = ?";
-        String recoverAvailability = "INSERT INTO Availabilities VALUES (?, ?)";
         String vaccine = "";
         try {
-            PreparedStatement searchStatement = con.prepareStatement(searchAppointment);
-            searchStatement.setString(1, appointmentID);
-            ResultSet resultSet = searchStatement.executeQuery();
-            if (!resultSet.isBeforeFirst()) {
-                System.out.println("No such appointment Please re-enter the appointment ID!");
-                return vaccine;
+            Date d;
+            Time slot;
+            try (PreparedStatement searchStatement = pool.prepare(con, Query.APPOINTMENT_GET)) {
+                searchStatement.setString(1, appointmentID);
+                try (ResultSet resultSet = searchStatement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        System.out.println("No such appointment Please re-enter the appointment ID!");
+                        return vaccine;
+                    }
+                    String caregiver = resultSet.getString("CaregiverName");
+                    if (!this.username.equals(caregiver)) {
+                        System.out.println("Don't cancel other people's appointment!");
+                        return vaccine;
+                    }
+                    d = resultSet.getDate("Date");
+                    slot = resultSet.getTime("Slot");
+                    vaccine = resultSet.getString("VaccineName");
+                }
             }
-            resultSet.next();
-            String caregiver = resultSet.getString("CaregiverName");
-            if (!this.username.equals(caregiver)) {
-                System.out.println("Don't cancel other people's appointment!");
-                return vaccine;
+            try (BookingLocks.Guard guard = BookingLocks.getInstance().newGuard()) {
+                guard.lockSlot(this.username, d);
+                try (PreparedStatement cancelStatement = pool.prepare(con, Query.APPOINTMENT_DELETE)) {
+                    cancelStatement.setString(1, appointmentID);
+                    if (cancelStatement.executeUpdate() == 0) {
+                        // cancelled concurrently, e.g. by the patient
+                        System.out.println("No such appointment Please re-enter the appointment ID!");
+                        return "";
+                    }
+                }
+                Availability.release(pool, con, d, slot, this.username);
             }
-//            String caregiver = resultSet.getString("CaregiverName");
-            Date d = resultSet.getDate("Date");
-            vaccine = resultSet.getString("VaccineName");
-            PreparedStatement cancelStatement = con.prepareStatement(cancelAppointment);
-            cancelStatement.setString(1, appointmentID);
-            cancelStatement.executeUpdate();
-            PreparedStatement recoverStatement = con.prepareStatement(recoverAvailability);
-            recoverStatement.setDate(1, d);
-            recoverStatement.setString(2, this.username);
-            recoverStatement.executeUpdate();
+            AvailabilityIndex.getInstance().add(d, this.username);
             return vaccine;
         } catch (SQLException e) {
-            throw new SQLException();
+            CANCEL.failed(e);
+            throw e;
         } finally {
-            cm.closeConnection();
+            pool.returnConnection(con);
+            CANCEL.record(System.nanoTime() - start);
         }
     }
 
-    public void showAvailableVaccine() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    public CompletableFuture<String> cancelAppointmentAsync(String appointmentID) {
+        return AsyncExecutor.getInstance().supply(() -> cancelAppointment(appointmentID));
+    }
 
-        String showAvailableVaccine = "SELECT * FROM Vaccines";
-        try {
-            PreparedStatement statement = con.prepareStatement(showAvailableVaccine);
-            ResultSet resultSet = statement.executeQuery();
-            int availableVaccines = 0;
-            while (resultSet.next()) {
-                String vaccineName = resultSet.getString("Name");
-                int availableDoses = resultSet.getInt("Doses");
-                if (availableDoses > 0) {
-                    Vaccine vaccine = new Vaccine.VaccineBuilder(vaccineName, availableDoses).build();
-                    System.out.println(vaccine);
-                }
-            }
-            if (availableVaccines == 0) {
-                System.out.println("No vaccines available!");
-            }
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+    public void showAvailableVaccine() throws SQLException {
+        int availableVaccines = Vaccine.listAvailable(0, Integer.MAX_VALUE,
+                (vaccineName, availableDoses) -> System.out.println(Vaccine.format(vaccineName, availableDoses)));
+        if (availableVaccines == 0) {
+            System.out.println("No vaccines available!");
         }
     }
 
     public void showAppointment() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        long start = System.nanoTime();
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
 
-        String showAppointment = "SELECT * FROM Appointments WHERE CaregiverName = ?";
-        try {
-            PreparedStatement statement = con.prepareStatement(showAppointment);
+        try (PreparedStatement statement = pool.prepare(con, Query.APPOINTMENTS_BY_CAREGIVER)) {
             statement.setString(1, this.username);
-            ResultSet resultSet = statement.executeQuery();
-            if (!resultSet.isBeforeFirst()) {
-                System.out.println("You have no appointment");
-                return;
-            }
-            while (resultSet.next()) {
-                String appointmentID = resultSet.getString("AppointmentID");
-                String vaccine = resultSet.getString("VaccineName");
-                java.util.Date date = resultSet.getDate("Date");
-                String caregiver = resultSet.getString("PatientName");
-                System.out.println("appointmentID : " + appointmentID + ", vaccine : " + vaccine +
-                        ", date : " + date + ", patient : " + caregiver);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.isBeforeFirst()) {
+                    System.out.println("You have no appointment");
+                    return;
+                }
+                while (resultSet.next()) {
+                    String appointmentID = resultSet.getString("AppointmentID");
+                    String vaccine = resultSet.getString("VaccineName");
+                    java.util.Date date = resultSet.getDate("Date");
+                    String caregiver = resultSet.getString("PatientName");
+                    System.out.println("appointmentID : " + appointmentID + ", vaccine : " + vaccine +
+                            ", date : " + date + ", patient : " + caregiver);
+                }
             }
         } catch (SQLException e) {
-            throw new SQLException();
+            SHOW_APPOINTMENTS.failed(e);
+            throw e;
         } finally {
-            cm.closeConnection();
+            pool.returnConnection(con);
+            SHOW_APPOINTMENTS.record(System.nanoTime() - start);
         }
     }
 
@@ -238,35 +287,91 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
+            if (!load()) {
+                return null;
+            }
+            // the connection is back in the pool before the deliberately slow check runs
+            PasswordHasher hasher = PasswordHasher.getInstance();
+            PasswordHasher.Verification verification;
             try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
+                verification = hasher.verify(password, salt, hash);
+            } catch (RejectedExecutionException e) {
+                throw new SQLException("Too many logins in progress", e);
+            }
+            if (verification == PasswordHasher.Verification.INVALID) {
+                return null;
+            }
+            if (verification == PasswordHasher.Verification.REHASH) {
+                hash = rehash(hasher, salt, hash);
+            }
+            return new Caregiver(this);
+        }
+
+        // loads the account of a session that already logged in, without a password; null if it was removed
+        public Caregiver resume() throws SQLException {
+            return load() ? new Caregiver(this) : null;
+        }
+
+        // reads the salt and hash, returns false if there is no such account
+        private boolean load() throws SQLException {
+            long start = System.nanoTime();
+            ConnectionPool pool = ConnectionPool.getInstance();
+            Connection con = pool.borrowConnection();
+
+            try (PreparedStatement statement = pool.prepare(con, Query.CAREGIVER_GET)) {
                 statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return false;
                     }
+                    salt = resultSet.getBytes("Salt");
+                    // we need to call Util.trim() to get rid of the paddings of hashes stored before the
+                    // column was widened, try to remove the use of Util.trim() and you'll see :)
+                    hash = Util.trim(resultSet.getBytes("Hash"));
                 }
-                return null;
             } catch (SQLException e) {
-                throw new SQLException();
+                GET.failed(e);
+                throw e;
             } finally {
-                cm.closeConnection();
+                pool.returnConnection(con);
+                GET.record(System.nanoTime() - start);
+            }
+            return true;
+        }
+
+        // stores the password under the current hash parameters; keeps the old hash if that fails, since the
+        // password was already verified and the login should not fail over an upgrade
+        private byte[] rehash(PasswordHasher hasher, byte[] salt, byte[] hash) {
+            byte[] current;
+            try {
+                current = hasher.hash(password, salt);
+            } catch (RejectedExecutionException e) {
+                return hash;
             }
+            long start = System.nanoTime();
+            ConnectionPool pool = ConnectionPool.getInstance();
+            Connection con = null;
+            try {
+                con = pool.borrowConnection();
+                try (PreparedStatement statement = pool.prepare(con, Query.CAREGIVER_UPDATE_HASH)) {
+                    statement.setBytes(1, current);
+                    statement.setString(2, this.username);
+                    statement.executeUpdate();
+                    return current;
+                }
+            } catch (SQLException e) {
+                REHASH.failed(e);
+                return hash;
+            } finally {
+                if (con != null) {
+                    pool.returnConnection(con);
+                }
+                REHASH.record(System.nanoTime() - start);
+            }
+        }
+
+        public CompletableFuture<Caregiver> getAsync() {
+            return AsyncExecutor.getInstance().supply(this::get);
         }
     }
 }
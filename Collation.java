@@ -0,0 +1,22 @@
+package scheduler.util;
+
+import java.util.Locale;
+
+/**
+ * Names as the database compares them. Usernames and vaccine names are keys in varchar columns under the default
+ * SQL Server collation, which ignores case and trailing spaces, so in-memory maps and sets that mirror those
+ * tables must key them the same way or they will treat "Pfizer" and "pfizer " as different rows.
+ */
+public class Collation {
+    private Collation() {
+    }
+
+    // the lower-cased name without trailing spaces
+    public static String key(String name) {
+        int end = name.length();
+        while (end > 0 && name.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return name.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,139 @@
+package scheduler;
+
+/**
+ * A named command with the number of arguments it takes and who may run it. The registry checks both before
+ * calling the handler, so handlers can assume a well-formed request from an eligible user.
+ */
+public class Command {
+    // who is allowed to run a command
+    public enum Role {
+        ANYONE("Please try again!"),
+        LOGGED_OUT("Already logged-in!"),
+        LOGGED_IN("Please log in to perform this operation!"),
+        PATIENT("Please login as a patient first!"),
+        CAREGIVER("Please login as a caregiver first!"),
+        // commands that read files on the server, which network clients must not choose
+        LOCAL_CAREGIVER("Please login as a caregiver on the server's terminal first!");
+
+        private final String deniedMessage;
+
+        Role(String deniedMessage) {
+            this.deniedMessage = deniedMessage;
+        }
+
+        public String getDeniedMessage() {
+            return deniedMessage;
+        }
+
+        public boolean permits(Session session) {
+            switch (this) {
+                case LOGGED_OUT:
+                    return !session.isLoggedIn();
+                case LOGGED_IN:
+                    return session.isLoggedIn();
+                case PATIENT:
+                    return session.getPatient() != null;
+                case CAREGIVER:
+                    return session.getCaregiver() != null;
+                case LOCAL_CAREGIVER:
+                    return session.getCaregiver() != null && !session.isRemote();
+                default:
+                    return true;
+            }
+        }
+    }
+
+    public interface Handler {
+        // tokens[0] is the command name itself
+        void handle(Session session, String[] tokens);
+    }
+
+    // arguments are not counted for commands registered with ANY_ARITY
+    public static final int ANY_ARITY = -1;
+
+    private final String name;
+    private final int minArgs;
+    private final int maxArgs;
+    private final Role role;
+    private final String arityMessage;
+    private final boolean endsSession;
+    private final Handler handler;
+
+    public static class CommandBuilder {
+        private final String name;
+        private final Handler handler;
+        private int minArgs = ANY_ARITY;
+        private int maxArgs = ANY_ARITY;
+        private Role role = Role.ANYONE;
+        private String arityMessage = "Please try again!";
+        private boolean endsSession = false;
+
+        public CommandBuilder(String name, Handler handler) {
+            this.name = name;
+            this.handler = handler;
+        }
+
+        public CommandBuilder arity(int args) {
+            return arity(args, args);
+        }
+
+        public CommandBuilder arity(int minArgs, int maxArgs) {
+            this.minArgs = minArgs;
+            this.maxArgs = maxArgs;
+            return this;
+        }
+
+        public CommandBuilder role(Role role) {
+            this.role = role;
+            return this;
+        }
+
+        public CommandBuilder arityMessage(String arityMessage) {
+            this.arityMessage = arityMessage;
+            return this;
+        }
+
+        public CommandBuilder endsSession() {
+            this.endsSession = true;
+            return this;
+        }
+
+        public Command build() {
+            return new Command(this);
+        }
+    }
+
+    private Command(CommandBuilder builder) {
+        this.name = builder.name;
+        this.minArgs = builder.minArgs;
+        this.maxArgs = builder.maxArgs;
+        this.role = builder.role;
+        this.arityMessage = builder.arityMessage;
+        this.endsSession = builder.endsSession;
+        this.handler = builder.handler;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public String getArityMessage() {
+        return arityMessage;
+    }
+
+    public boolean endsSession() {
+        return endsSession;
+    }
+
+    public Handler getHandler() {
+        return handler;
+    }
+
+    public boolean acceptsArgs(int args) {
+        return (minArgs == ANY_ARITY || args >= minArgs) && (maxArgs == ANY_ARITY || args <= maxArgs);
+    }
+}
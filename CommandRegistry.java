@@ -0,0 +1,63 @@
+package scheduler;
+
+import scheduler.util.Metrics;
+import scheduler.util.OperationStats;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps command names to their Command and dispatches tokenized input lines, checking the caller's role and
+ * the argument count before handing over to the command's handler. Every handler run is timed under the
+ * operation "command.&lt;name&gt;" in {@link Metrics}.
+ */
+public class CommandRegistry {
+    private final Map<String, Command> commands = new HashMap<String, Command>();
+    // looked up once at registration, so dispatch records without a lookup by name
+    private final Map<Command, OperationStats> stats = new HashMap<Command, OperationStats>();
+
+    public void register(Command command) {
+        if (commands.putIfAbsent(command.getName(), command) != null) {
+            throw new IllegalArgumentException("Command already registered: " + command.getName());
+        }
+        stats.put(command, Metrics.getInstance().operation("command." + command.getName()));
+    }
+
+    public Command lookup(String name) {
+        return commands.get(name);
+    }
+
+    // runs one line on behalf of the session, returns false once the session should end
+    public boolean dispatch(Session session, String line) {
+        String[] tokens = Tokenizer.tokenize(line);
+        // check if input exists
+        if (tokens.length == 0) {
+            System.out.println("Please try again!");
+            return true;
+        }
+        Command command = commands.get(tokens[0]);
+        if (command == null) {
+            System.out.println("Invalid operation name!");
+            return true;
+        }
+        if (!command.getRole().permits(session)) {
+            System.out.println(command.getRole().getDeniedMessage());
+            return true;
+        }
+        if (!command.acceptsArgs(tokens.length - 1)) {
+            System.out.println(command.getArityMessage());
+            return true;
+        }
+        OperationStats timing = stats.get(command);
+        long start = System.nanoTime();
+        try {
+            command.getHandler().handle(session, tokens);
+        } catch (RuntimeException e) {
+            timing.failed(e);
+            throw e;
+        } finally {
+            timing.record(System.nanoTime() - start);
+        }
+        return !command.endsSession();
+    }
+}
@@ -0,0 +1,463 @@
+package scheduler.db;
+
+import scheduler.util.Metrics;
+import scheduler.util.OperationStats;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of long-lived connections created through {@link ConnectionManager}.
+ *
+ * Callers borrow a connection, use it and hand it back in a finally block, in place of creating and closing
+ * a fresh ConnectionManager for every statement. The pool is configured with system properties:
+ * scheduler.pool.minSize, scheduler.pool.maxSize, scheduler.pool.borrowTimeoutMillis,
+ * scheduler.pool.idleTimeoutMillis, scheduler.pool.validationTimeoutSeconds and
+ * scheduler.pool.statementCacheSize.
+ *
+ * Each pooled connection keeps its own LRU cache of prepared statements. Statements are obtained with
+ * {@link #prepare(Connection, Query)} and released by closing them.
+ *
+ * The time each borrow spends acquiring a connection is also recorded as the operation "pool.acquire" in
+ * {@link Metrics}, failed borrows included. The shared pool publishes its gauges over JMX as
+ * scheduler:type=ConnectionPool,name="default", and the stats command prints them.
+ */
+public class ConnectionPool implements ConnectionPoolMXBean {
+    private static final ConnectionPool INSTANCE = new ConnectionPool(
+            Integer.getInteger("scheduler.pool.minSize", 2),
+            Integer.getInteger("scheduler.pool.maxSize", 16),
+            Long.getLong("scheduler.pool.borrowTimeoutMillis", 5000L),
+            Long.getLong("scheduler.pool.idleTimeoutMillis", 300000L),
+            Integer.getInteger("scheduler.pool.validationTimeoutSeconds", 2),
+            Integer.getInteger("scheduler.pool.statementCacheSize", 64));
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    static {
+        Metrics.getInstance().register("ConnectionPool", "default", INSTANCE);
+    }
+
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    // idle connections, most recently returned first so that the tail is the eviction candidate
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+    private final Map<Connection, PooledConnection> leased = new ConcurrentHashMap<Connection, PooledConnection>();
+    private final Semaphore permits;
+    private final ScheduledExecutorService evictor;
+    private volatile boolean shutdown = false;
+
+    // metrics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final AtomicLong statementEvictions = new AtomicLong();
+    private final OperationStats acquire = Metrics.getInstance().operation("pool.acquire");
+
+    public static ConnectionPool getInstance() {
+        return INSTANCE;
+    }
+
+    public ConnectionPool(int minSize, int maxSize, long borrowTimeoutMillis, long idleTimeoutMillis,
+                          int validationTimeoutSeconds, int statementCacheSize) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1000L, idleTimeoutMillis / 2);
+        this.evictor.scheduleWithFixedDelay(this::evictIdle, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, waiting at most the borrow timeout for one to become free. Idle connections are
+     * validated before being handed out; broken ones are discarded and replaced.
+     */
+    public Connection borrowConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw failed(start, new SQLException("Timed out after " + borrowTimeoutMillis
+                        + " ms waiting for a database connection", "08001"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failed(start,
+                    new SQLException("Interrupted while waiting for a database connection", "08001", e));
+        }
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isValid(pooled)) {
+                    break;
+                }
+                destroy(pooled);
+            }
+            if (pooled == null) {
+                pooled = create();
+            }
+            leased.put(pooled.connection, pooled);
+            recordWait(System.nanoTime() - start);
+            return pooled.connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            failed(start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Hands a borrowed connection back to the pool. Any open transaction is rolled back. Passing null or a
+     * connection that was not borrowed from this pool does nothing.
+     */
+    public void returnConnection(Connection con) {
+        if (con == null) {
+            return;
+        }
+        PooledConnection pooled = leased.remove(con);
+        if (pooled == null) {
+            return;
+        }
+        try {
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            if (shutdown) {
+                destroy(pooled);
+                return;
+            }
+            pooled.lastUsed = System.nanoTime();
+            idle.offerFirst(pooled);
+            // a shutdown that drained the idle list just before the offer would miss this connection
+            if (shutdown && idle.remove(pooled)) {
+                destroy(pooled);
+            }
+        } catch (SQLException e) {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Returns the cached prepared statement for the query on a connection borrowed from this pool, preparing it
+     * on first use. Close the statement, ideally with try-with-resources, to hand it back to the cache.
+     */
+    public PreparedStatement prepare(Connection con, Query query) throws SQLException {
+        PooledConnection pooled = leased.get(con);
+        if (pooled == null) {
+            throw new IllegalArgumentException("Connection was not borrowed from this pool");
+        }
+        return pooled.statements.prepare(query);
+    }
+
+    void recordStatementHit() {
+        statementHits.incrementAndGet();
+    }
+
+    void recordStatementMiss() {
+        statementMisses.incrementAndGet();
+    }
+
+    void recordStatementEviction() {
+        statementEvictions.incrementAndGet();
+    }
+
+    @Override
+    public int getActive() {
+        return leased.size();
+    }
+
+    @Override
+    public int getIdle() {
+        return idle.size();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    @Override
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.get();
+        return borrows == 0 ? 0 : totalWaitNanos.get() / NANOS_PER_MILLI / borrows;
+    }
+
+    @Override
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    @Override
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    @Override
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    @Override
+    public long getStatementHits() {
+        return statementHits.get();
+    }
+
+    @Override
+    public long getStatementMisses() {
+        return statementMisses.get();
+    }
+
+    @Override
+    public long getStatementEvictions() {
+        return statementEvictions.get();
+    }
+
+    // the share of prepare calls served from a cache, or 0 before the first one
+    @Override
+    public double getStatementHitRatio() {
+        long hits = statementHits.get();
+        long lookups = hits + statementMisses.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public PoolStats getStats() {
+        int idleCount = idle.size();
+        int activeCount = leased.size();
+        long borrows = borrowCount.get();
+        return new PoolStats(activeCount, idleCount, maxSize, borrows,
+                borrows == 0 ? 0 : totalWaitNanos.get() / borrows, maxWaitNanos.get(),
+                timeoutCount.get(), createdCount.get(), destroyedCount.get(),
+                statementHits.get(), statementMisses.get(), statementEvictions.get());
+    }
+
+    /**
+     * Closes every idle connection and stops the eviction thread. Connections still on loan are closed when
+     * they are returned.
+     */
+    public void shutdown() {
+        shutdown = true;
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            throw new SQLException("Could not open a database connection", "08001");
+        }
+        createdCount.incrementAndGet();
+        return new PooledConnection(cm, con, new StatementCache(con, statementCacheSize, this));
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void destroy(PooledConnection pooled) {
+        destroyedCount.incrementAndGet();
+        pooled.statements.closeAll();
+        pooled.manager.closeConnection();
+    }
+
+    private void recordWait(long waitNanos) {
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        acquire.record(waitNanos);
+    }
+
+    // counts a borrow that did not get a connection, returning the error for the caller to throw
+    private <E extends Exception> E failed(long start, E error) {
+        acquire.failed(error);
+        acquire.record(System.nanoTime() - start);
+        return error;
+    }
+
+    // closes connections that have been idle for too long while keeping at least minSize around, then tops the
+    // pool back up to minSize
+    private void evictIdle() {
+        long now = System.nanoTime();
+        long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext() && idle.size() + leased.size() > minSize) {
+            PooledConnection pooled = it.next();
+            if (now - pooled.lastUsed > idleTimeoutNanos && idle.removeLastOccurrence(pooled)) {
+                destroy(pooled);
+            }
+        }
+        while (idle.size() + leased.size() < minSize && permits.tryAcquire()) {
+            try {
+                PooledConnection pooled = create();
+                pooled.lastUsed = System.nanoTime();
+                idle.offerLast(pooled);
+            } catch (SQLException | RuntimeException e) {
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private static class PooledConnection {
+        private final ConnectionManager manager;
+        private final Connection connection;
+        private final StatementCache statements;
+        private volatile long lastUsed;
+
+        private PooledConnection(ConnectionManager manager, Connection connection, StatementCache statements) {
+            this.manager = manager;
+            this.connection = connection;
+            this.statements = statements;
+            this.lastUsed = System.nanoTime();
+        }
+    }
+
+    public static class PoolStats {
+        private final int active;
+        private final int idle;
+        private final int maxSize;
+        private final long borrowCount;
+        private final long averageWaitNanos;
+        private final long maxWaitNanos;
+        private final long timeoutCount;
+        private final long createdCount;
+        private final long destroyedCount;
+        private final long statementHits;
+        private final long statementMisses;
+        private final long statementEvictions;
+
+        private PoolStats(int active, int idle, int maxSize, long borrowCount, long averageWaitNanos,
+                          long maxWaitNanos, long timeoutCount, long createdCount, long destroyedCount,
+                          long statementHits, long statementMisses, long statementEvictions) {
+            this.active = active;
+            this.idle = idle;
+            this.maxSize = maxSize;
+            this.borrowCount = borrowCount;
+            this.averageWaitNanos = averageWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.timeoutCount = timeoutCount;
+            this.createdCount = createdCount;
+            this.destroyedCount = destroyedCount;
+            this.statementHits = statementHits;
+            this.statementMisses = statementMisses;
+            this.statementEvictions = statementEvictions;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public long getBorrowCount() {
+            return borrowCount;
+        }
+
+        public long getAverageWaitNanos() {
+            return averageWaitNanos;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        public long getTimeoutCount() {
+            return timeoutCount;
+        }
+
+        public long getCreatedCount() {
+            return createdCount;
+        }
+
+        public long getDestroyedCount() {
+            return destroyedCount;
+        }
+
+        public long getStatementHits() {
+            return statementHits;
+        }
+
+        public long getStatementMisses() {
+            return statementMisses;
+        }
+
+        public long getStatementEvictions() {
+            return statementEvictions;
+        }
+
+        @Override
+        public String toString() {
+            return "PoolStats{" +
+                    "active=" + active +
+                    ", idle=" + idle +
+                    ", maxSize=" + maxSize +
+                    ", borrowCount=" + borrowCount +
+                    ", averageWaitNanos=" + averageWaitNanos +
+                    ", maxWaitNanos=" + maxWaitNanos +
+                    ", timeoutCount=" + timeoutCount +
+                    ", createdCount=" + createdCount +
+                    ", destroyedCount=" + destroyedCount +
+                    ", statementHits=" + statementHits +
+                    ", statementMisses=" + statementMisses +
+                    ", statementEvictions=" + statementEvictions +
+                    '}';
+        }
+    }
+}
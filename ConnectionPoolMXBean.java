@@ -0,0 +1,31 @@
+package scheduler.db;
+
+// the JMX view of the connection pool; times are in milliseconds
+public interface ConnectionPoolMXBean {
+    int getActive();
+
+    int getIdle();
+
+    int getMaxSize();
+
+    long getBorrowCount();
+
+    double getAverageWaitMillis();
+
+    double getMaxWaitMillis();
+
+    long getTimeoutCount();
+
+    long getCreatedCount();
+
+    long getDestroyedCount();
+
+    // the prepared statement caches of all connections together
+    long getStatementHits();
+
+    long getStatementMisses();
+
+    long getStatementEvictions();
+
+    double getStatementHitRatio();
+}
@@ -0,0 +1,87 @@
+package scheduler.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram in the style of HdrHistogram: values are counted in buckets whose width grows with the
+ * value, so every recorded value is known to within about 3% whatever its magnitude, from nanoseconds to
+ * hours, in a fixed 960 buckets.
+ *
+ * Recording is a handful of atomic increments and allocates nothing. Percentiles are computed from a
+ * bucket-by-bucket read that is not atomic with respect to concurrent recording, which only blurs values
+ * recorded during the read.
+ */
+public class LatencyHistogram {
+    // 2^SUB_BITS buckets below 2^SUB_BITS, then 2^(SUB_BITS - 1) buckets for every further power of two
+    private static final int SUB_BITS = 5;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private static final int BUCKETS = (65 - SUB_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    // the value below which the given percentage (0 to 100) of the recorded values fall, or 0 if there are none
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                // the middle of the bucket, never beyond the largest value actually seen
+                return Math.min(lowest(i) + (width(i) >>> 1), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int index(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1));
+        return (shift << (SUB_BITS - 1)) + (int) (value >>> shift);
+    }
+
+    private static long lowest(int index) {
+        if (index < 2 * HALF) {
+            return index;
+        }
+        int shift = (index >> (SUB_BITS - 1)) - 1;
+        return (long) (index - (shift << (SUB_BITS - 1))) << shift;
+    }
+
+    private static long width(int index) {
+        return index < 2 * HALF ? 1 : 1L << ((index >> (SUB_BITS - 1)) - 1);
+    }
+}
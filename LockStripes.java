@@ -0,0 +1,47 @@
+package scheduler.util;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed set of read-write locks that keys are hashed onto, so that an unbounded key space (caregivers and
+ * dates, vaccines) is guarded by a bounded number of locks. Two keys only contend if they land on the same
+ * stripe. The stripe count is rounded up to a power of two.
+ *
+ * Callers that hold more than one stripe at a time must agree on the order they take them in; see BookingLocks.
+ */
+public class LockStripes {
+    private final ReentrantReadWriteLock[] locks;
+    private final int mask;
+
+    public LockStripes(int stripes) {
+        if (stripes <= 0 || stripes > 1 << 16) {
+            throw new IllegalArgumentException("Invalid stripe count: " + stripes);
+        }
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+        this.locks = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = size - 1;
+    }
+
+    // the stripe of a key's hash code, spread so that keys differing only in their high bits still separate
+    public int stripeOf(int hash) {
+        int h = hash;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h & mask;
+    }
+
+    public ReentrantReadWriteLock get(int stripe) {
+        return locks[stripe];
+    }
+
+    public int size() {
+        return locks.length;
+    }
+}
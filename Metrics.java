@@ -0,0 +1,56 @@
+package scheduler.util;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The process-wide registry of {@link OperationStats}. Every operation is also registered with the platform
+ * MBean server as scheduler:type=Operation,name=&lt;name&gt;, so the numbers can be read with jconsole or any
+ * other JMX client while the scheduler runs. Components with gauges of their own, such as the connection pool,
+ * register their MXBeans through {@link #register}.
+ */
+public class Metrics {
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final Map<String, OperationStats> operations = new ConcurrentHashMap<String, OperationStats>();
+
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    private Metrics() {
+    }
+
+    // the stats of the named operation, created and registered on first use
+    public OperationStats operation(String name) {
+        return operations.computeIfAbsent(name, key -> {
+            OperationStats stats = new OperationStats(key);
+            register("Operation", key, stats);
+            return stats;
+        });
+    }
+
+    // registers a component's own MXBean, such as the connection pool's, as scheduler:type=<type>,name=<name>
+    public void register(String type, String name, Object mxBean) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mxBean,
+                    new ObjectName("scheduler:type=" + type + ",name=" + ObjectName.quote(name)));
+        } catch (JMException e) {
+            // the numbers are still available through the stats command
+            System.err.println("Could not register metrics for " + name + ": " + e);
+        }
+    }
+
+    // every operation seen so far, ordered by name
+    public List<OperationStats> getOperations() {
+        List<OperationStats> all = new ArrayList<OperationStats>(operations.values());
+        all.sort(Comparator.comparing(OperationStats::getName));
+        return all;
+    }
+}
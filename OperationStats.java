@@ -0,0 +1,96 @@
+package scheduler.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latency distribution and failures of one kind of operation, such as a command or a database call.
+ * Obtain instances from {@link Metrics} once, e.g. in a static field, so that recording does no lookup.
+ */
+public class OperationStats implements OperationStatsMXBean {
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile Throwable lastError;
+
+    OperationStats(String name) {
+        this.name = name;
+    }
+
+    // records one call, failed or not, that took elapsedNanos
+    public void record(long elapsedNanos) {
+        latency.record(elapsedNanos);
+    }
+
+    // counts a failure; the exception is kept, not copied, so this allocates nothing either
+    public void failed(Throwable error) {
+        errors.incrementAndGet();
+        lastError = error;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public Throwable getLastFailure() {
+        return lastError;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latency.getPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return latency.getPercentile(90) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latency.getPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return latency.getPercentile(99.9) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latency.getMax() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public String getLastError() {
+        Throwable root = lastError;
+        if (root == null) {
+            return null;
+        }
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root.toString();
+    }
+}
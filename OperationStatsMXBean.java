@@ -0,0 +1,25 @@
+package scheduler.util;
+
+// the JMX view of one OperationStats; times are in milliseconds
+public interface OperationStatsMXBean {
+    String getName();
+
+    long getCount();
+
+    long getErrorCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+
+    // the root cause of the most recent failure, or null if there has been none
+    String getLastError();
+}
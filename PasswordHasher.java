@@ -0,0 +1,184 @@
+package scheduler.util;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes and verifies passwords in a self-describing format, so that the cost can be raised without
+ * invalidating existing accounts. A stored hash reads
+ *
+ *     $pbkdf2-sha256$210000$salt$hash
+ *
+ * with the salt and hash in base64. The algorithm and iteration count of new hashes come from the system
+ * properties scheduler.password.algorithm (pbkdf2-sha1, pbkdf2-sha256 or pbkdf2-sha512) and
+ * scheduler.password.iterations. A login whose hash uses other parameters, or that predates the format (a bare
+ * Util.generateHash digest), is verified with the parameters it was stored with and reported as
+ * {@link Verification#REHASH}, so the caller can store a current hash while it still has the password.
+ *
+ * Hashing is deliberately slow, so it runs on a dedicated pool of scheduler.password.threads threads (default:
+ * one per core) with a queue of scheduler.password.queueSize tasks. A burst of logins waits in that queue or is
+ * turned away instead of occupying the threads that serve bookings.
+ */
+public class PasswordHasher {
+    private static final PasswordHasher INSTANCE = new PasswordHasher(
+            System.getProperty("scheduler.password.algorithm", "pbkdf2-sha256"),
+            Integer.getInteger("scheduler.password.iterations", 210000),
+            Integer.getInteger("scheduler.password.threads", Runtime.getRuntime().availableProcessors()),
+            Integer.getInteger("scheduler.password.queueSize", 256));
+
+    private static final String PREFIX = "$pbkdf2-";
+    private static final int KEY_BITS = 256;
+
+    public enum Verification {
+        INVALID,
+        VALID,
+        // the password is right but the stored hash uses outdated parameters
+        REHASH
+    }
+
+    private final String algorithm;
+    private final int iterations;
+    private final ThreadPoolExecutor executor;
+
+    public static PasswordHasher getInstance() {
+        return INSTANCE;
+    }
+
+    public PasswordHasher(String algorithm, int iterations, int threads, int queueSize) {
+        if (iterations <= 0 || threads <= 0 || queueSize <= 0) {
+            throw new IllegalArgumentException("Invalid password hasher: " + iterations + " iterations, "
+                    + threads + " threads, queue " + queueSize);
+        }
+        factory(algorithm);
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), r -> {
+            Thread thread = new Thread(r, "scheduler-password-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Hashes a new password with the current parameters. Blocks until a hashing thread is free and throws a
+     * RejectedExecutionException if the queue is full.
+     */
+    public byte[] hash(String password, byte[] salt) {
+        return await(executor.submit(() -> encode(password, salt)));
+    }
+
+    // checks a password against a stored hash in either the current or the legacy format; see hash for blocking
+    public Verification verify(String password, byte[] salt, byte[] stored) {
+        return await(executor.submit(() -> check(password, salt, stored)));
+    }
+
+    // hashes on the calling thread, for callers that bring their own pool such as the bulk account import
+    public byte[] encode(String password, byte[] salt) {
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        String encoded = "$" + algorithm + "$" + iterations + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(derive(algorithm, iterations, password, salt));
+        return encoded.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private Verification check(String password, byte[] salt, byte[] stored) {
+        if (!isEncoded(stored)) {
+            // a bare 16-byte digest from before the format existed
+            boolean valid = MessageDigest.isEqual(stored, Util.trim(Util.generateHash(password, salt)));
+            return valid ? Verification.REHASH : Verification.INVALID;
+        }
+        String[] parts = new String(stored, StandardCharsets.US_ASCII).split("\\$");
+        if (parts.length != 5) {
+            return Verification.INVALID;
+        }
+        String storedAlgorithm = parts[1];
+        int storedIterations;
+        byte[] storedSalt;
+        byte[] expected;
+        try {
+            storedIterations = Integer.parseInt(parts[2]);
+            storedSalt = Base64.getDecoder().decode(parts[3]);
+            expected = Base64.getDecoder().decode(parts[4]);
+            factory(storedAlgorithm);
+        } catch (IllegalArgumentException e) {
+            // a damaged hash matches no password
+            return Verification.INVALID;
+        }
+        if (storedIterations <= 0) {
+            return Verification.INVALID;
+        }
+        if (!MessageDigest.isEqual(expected, derive(storedAlgorithm, storedIterations, password, storedSalt))) {
+            return Verification.INVALID;
+        }
+        return storedAlgorithm.equals(algorithm) && storedIterations == iterations
+                ? Verification.VALID : Verification.REHASH;
+    }
+
+    private static boolean isEncoded(byte[] stored) {
+        if (stored.length < PREFIX.length()) {
+            return false;
+        }
+        for (int i = 0; i < PREFIX.length(); i++) {
+            if (stored[i] != PREFIX.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] derive(String algorithm, int iterations, String password, byte[] salt) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            return factory(algorithm).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot hash with " + algorithm, e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    // pbkdf2-sha256 is PBKDF2WithHmacSHA256, and so on
+    private static SecretKeyFactory factory(String algorithm) {
+        if (!algorithm.startsWith(PREFIX.substring(1))) {
+            throw new IllegalArgumentException("Unknown password hash algorithm: " + algorithm);
+        }
+        String hmac = algorithm.substring(PREFIX.length() - 1).toUpperCase();
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmac" + hmac);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Unknown password hash algorithm: " + algorithm, e);
+        }
+    }
+
+    private static <T> T await(Future<T> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing a password", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Failed to hash a password", cause);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
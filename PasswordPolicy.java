@@ -0,0 +1,137 @@
+package scheduler.util;
+
+import java.util.EnumSet;
+
+/**
+ * Configurable password strength rules, checked in a single pass over the characters of the password without
+ * regular expressions or copies of the input.
+ */
+public class PasswordPolicy {
+    // reported in this order, which is also the order in which the scheduler explains them to users
+    public enum Violation {
+        TOO_SHORT,
+        NOT_MIXED_LETTERS_AND_DIGITS,
+        MISSING_UPPERCASE,
+        MISSING_LOWERCASE,
+        MISSING_SPECIAL_CHARACTER
+    }
+
+    private final int minLength;
+    private final boolean requireLettersAndDigits;
+    private final boolean requireUppercase;
+    private final boolean requireLowercase;
+    private final String specialCharacters;
+    // ASCII lookup table for specialCharacters, anything beyond it is checked with indexOf
+    private final boolean[] special = new boolean[128];
+
+    public static class PasswordPolicyBuilder {
+        private int minLength = 8;
+        private boolean requireLettersAndDigits = true;
+        private boolean requireUppercase = true;
+        private boolean requireLowercase = false;
+        private String specialCharacters = "!@#?";
+
+        public PasswordPolicyBuilder minLength(int minLength) {
+            if (minLength < 0) {
+                throw new IllegalArgumentException("Minimum length cannot be negative!");
+            }
+            this.minLength = minLength;
+            return this;
+        }
+
+        // rejects passwords made only of digits or only of letters
+        public PasswordPolicyBuilder requireLettersAndDigits(boolean required) {
+            this.requireLettersAndDigits = required;
+            return this;
+        }
+
+        public PasswordPolicyBuilder requireUppercase(boolean required) {
+            this.requireUppercase = required;
+            return this;
+        }
+
+        public PasswordPolicyBuilder requireLowercase(boolean required) {
+            this.requireLowercase = required;
+            return this;
+        }
+
+        // an empty set disables the special character rule
+        public PasswordPolicyBuilder specialCharacters(String specialCharacters) {
+            this.specialCharacters = specialCharacters;
+            return this;
+        }
+
+        public PasswordPolicy build() {
+            return new PasswordPolicy(this);
+        }
+    }
+
+    private PasswordPolicy(PasswordPolicyBuilder builder) {
+        this.minLength = builder.minLength;
+        this.requireLettersAndDigits = builder.requireLettersAndDigits;
+        this.requireUppercase = builder.requireUppercase;
+        this.requireLowercase = builder.requireLowercase;
+        this.specialCharacters = builder.specialCharacters;
+        for (int i = 0; i < specialCharacters.length(); i++) {
+            char c = specialCharacters.charAt(i);
+            if (c < special.length) {
+                special[c] = true;
+            }
+        }
+    }
+
+    public String getSpecialCharacters() {
+        return specialCharacters;
+    }
+
+    public int getMinLength() {
+        return minLength;
+    }
+
+    // returns every rule the password breaks, empty if it is strong
+    public EnumSet<Violation> check(String password) {
+        EnumSet<Violation> violations = EnumSet.noneOf(Violation.class);
+        int length = password.length();
+        int digits = 0;
+        int letters = 0;
+        boolean hasUpper = false;
+        boolean hasLower = false;
+        boolean hasSpecial = false;
+        for (int i = 0; i < length; i++) {
+            char c = password.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                letters++;
+            }
+            if (Character.isUpperCase(c) || Character.isTitleCase(c)) {
+                hasUpper = true;
+            } else if (Character.isLowerCase(c)) {
+                hasLower = true;
+            }
+            if (!hasSpecial) {
+                hasSpecial = c < special.length ? special[c] : specialCharacters.indexOf(c) >= 0;
+            }
+        }
+        if (length < minLength) {
+            violations.add(Violation.TOO_SHORT);
+        }
+        if (requireLettersAndDigits && length > 0 && (digits == length || letters == length)) {
+            violations.add(Violation.NOT_MIXED_LETTERS_AND_DIGITS);
+        }
+        if (requireUppercase && !hasUpper) {
+            violations.add(Violation.MISSING_UPPERCASE);
+        }
+        if (requireLowercase && !hasLower) {
+            violations.add(Violation.MISSING_LOWERCASE);
+        }
+        if (!specialCharacters.isEmpty() && !hasSpecial) {
+            violations.add(Violation.MISSING_SPECIAL_CHARACTER);
+        }
+        return violations;
+    }
+
+    public boolean isStrong(String password) {
+        return check(password).isEmpty();
+    }
+}
@@ -1,6 +1,12 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.AsyncExecutor;
+import scheduler.db.ConnectionPool;
+import scheduler.db.Query;
+import scheduler.util.AppointmentIdGenerator;
+import scheduler.util.Metrics;
+import scheduler.util.OperationStats;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
 import java.io.InputStream;
@@ -8,9 +14,13 @@ import java.io.Reader;
 import java.math.BigDecimal;
 import java.net.URL;
 import java.sql.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.util.*;
 import java.util.Date;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Executor;
 
 public class Patient {
@@ -18,6 +28,21 @@ public class Patient {
     private final byte[] salt;
     private final byte[] hash;
 
+    private static final int MAX_RESERVE_ATTEMPTS = Integer.getInteger("scheduler.reserve.maxAttempts", 3);
+
+    // how far ahead reserve_earliest looks, and how many open dates it fetches per range search
+    private static final int EARLIEST_SEARCH_DAYS = 366;
+    private static final int EARLIEST_BATCH_DAYS = 7;
+
+    // database calls, each timed from borrowing the connection to returning it; a reservation includes its retries
+    private static final OperationStats SAVE = Metrics.getInstance().operation("patient.save");
+    private static final OperationStats GET = Metrics.getInstance().operation("patient.get");
+    private static final OperationStats REHASH = Metrics.getInstance().operation("patient.rehash");
+    private static final OperationStats RESERVE = Metrics.getInstance().operation("patient.reserve");
+    private static final OperationStats CANCEL = Metrics.getInstance().operation("patient.cancel");
+    private static final OperationStats SHOW_APPOINTMENTS =
+            Metrics.getInstance().operation("patient.showAppointments");
+
     public static class PatientBuilder {
         private final String username;
         private final byte[] salt;
@@ -46,32 +71,89 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
+            if (!load()) {
+                return null;
+            }
+            // the connection is back in the pool before the deliberately slow check runs
+            PasswordHasher hasher = PasswordHasher.getInstance();
+            PasswordHasher.Verification verification;
             try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
+                verification = hasher.verify(password, salt, hash);
+            } catch (RejectedExecutionException e) {
+                throw new SQLException("Too many logins in progress", e);
+            }
+            if (verification == PasswordHasher.Verification.INVALID) {
+                return null;
+            }
+            if (verification == PasswordHasher.Verification.REHASH) {
+                hash = rehash(hasher, salt, hash);
+            }
+            return new Patient(this);
+        }
+
+        // loads the account of a session that already logged in, without a password; null if it was removed
+        public Patient resume() throws SQLException {
+            return load() ? new Patient(this) : null;
+        }
+
+        // reads the salt and hash, returns false if there is no such account
+        private boolean load() throws SQLException {
+            long start = System.nanoTime();
+            ConnectionPool pool = ConnectionPool.getInstance();
+            Connection con = pool.borrowConnection();
+
+            try (PreparedStatement statement = pool.prepare(con, Query.PATIENT_GET)) {
                 statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return false;
                     }
+                    salt = resultSet.getBytes("Salt");
+                    hash = Util.trim(resultSet.getBytes("Hash"));
                 }
-                return null;
             } catch (SQLException e) {
-                throw new SQLException();
+                GET.failed(e);
+                throw e;
             } finally {
-                cm.closeConnection();
+                pool.returnConnection(con);
+                GET.record(System.nanoTime() - start);
             }
+            return true;
+        }
+
+        // stores the password under the current hash parameters; keeps the old hash if that fails, since the
+        // password was already verified and the login should not fail over an upgrade
+        private byte[] rehash(PasswordHasher hasher, byte[] salt, byte[] hash) {
+            byte[] current;
+            try {
+                current = hasher.hash(password, salt);
+            } catch (RejectedExecutionException e) {
+                return hash;
+            }
+            long start = System.nanoTime();
+            ConnectionPool pool = ConnectionPool.getInstance();
+            Connection con = null;
+            try {
+                con = pool.borrowConnection();
+                try (PreparedStatement statement = pool.prepare(con, Query.PATIENT_UPDATE_HASH)) {
+                    statement.setBytes(1, current);
+                    statement.setString(2, this.username);
+                    statement.executeUpdate();
+                    return current;
+                }
+            } catch (SQLException e) {
+                REHASH.failed(e);
+                return hash;
+            } finally {
+                if (con != null) {
+                    pool.returnConnection(con);
+                }
+                REHASH.record(System.nanoTime() - start);
+            }
+        }
+
+        public CompletableFuture<Patient> getAsync() {
+            return AsyncExecutor.getInstance().supply(this::get);
         }
     }
 
@@ -100,173 +182,348 @@ public class Patient {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        long start = System.nanoTime();
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
 
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
+        try (PreparedStatement statement = pool.prepare(con, Query.PATIENT_INSERT)) {
             statement.setString(1, this.username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
             statement.executeUpdate();
+            UsernameRegistry.getInstance().added(UsernameRegistry.Role.PATIENT, this.username);
         } catch (SQLException e) {
-            throw new SQLException();
+            SAVE.failed(e);
+            throw e;
         } finally {
-            cm.closeConnection();
+            pool.returnConnection(con);
+            SAVE.record(System.nanoTime() - start);
         }
     }
 
     public List<String> searchAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        return ScheduleView.searchCaregivers((java.sql.Date) d);
+    }
 
-        String searchAvailability = "SELECT Username FROM Availabilities WHERE Time = ?";
-        List<String> availableCaregiver = new ArrayList<String>();
-        try {
-            PreparedStatement statement = con.prepareStatement(searchAvailability);
-            statement.setDate(1, (java.sql.Date) d);
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                String caregiver = resultSet.getString("Username");
-                availableCaregiver.add(caregiver);
-            }
-            return availableCaregiver;
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+    public CompletableFuture<List<String>> searchAvailabilityAsync(Date d) {
+        return AsyncExecutor.getInstance().supply(() -> searchAvailability(d));
     }
 
     public void showAvailableVaccine() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        int availableVaccines = Vaccine.listAvailable(0, Integer.MAX_VALUE,
+                (vaccineName, availableDoses) -> System.out.println(Vaccine.format(vaccineName, availableDoses)));
+        if (availableVaccines == 0) {
+            System.out.println("No vaccines available!");
+        }
+    }
 
-        String showAvailableVaccine = "SELECT * FROM Vaccines";
-        try {
-            PreparedStatement statement = con.prepareStatement(showAvailableVaccine);
-            ResultSet resultSet = statement.executeQuery();
-            int availableVaccines = 0;
-            while (resultSet.next()) {
-                String vaccineName = resultSet.getString("Name");
-                int availableDoses = resultSet.getInt("Doses");
-                if (availableDoses > 0) {
-                    Vaccine vaccine = new Vaccine.VaccineBuilder(vaccineName, availableDoses).build();
-                    System.out.println(vaccine);
-                    availableVaccines++;
-                }
+    // Reserves the given vaccine on date d in the earliest open slot of any available caregiver. The slot claim and
+    // the appointment insert run in one transaction while a dose is held from the inventory, and deadlocks are
+    // retried a bounded number of times.
+    public Reservation reserveAppointment(String vaccine, Date d) throws SQLException {
+        return reserveAppointment(vaccine, (java.sql.Date) d, SlotSchedule.FIRST, SlotSchedule.LAST, false);
+    }
+
+    // reserves the given vaccine in one particular slot on date d
+    public Reservation reserveAppointment(String vaccine, Date d, Time slot) throws SQLException {
+        return reserveAppointment(vaccine, (java.sql.Date) d, slot, slot, false);
+    }
+
+    // Reserves the given vaccine on the earliest date after `after` (inclusive) that has a free caregiver, within
+    // the next EARLIEST_SEARCH_DAYS days. Dates come from indexed range searches a few at a time, and on each date
+    // the caregiver with the fewest appointments that week is claimed first. Returns NO_CAREGIVER if no date in
+    // the window could be booked.
+    public Reservation reserveEarliest(String vaccine, Date after) throws SQLException {
+        java.sql.Date from = (java.sql.Date) after;
+        int doses = VaccineInventory.getInstance().getDoses(vaccine);
+        if (doses < 0) {
+            return new Reservation.ReservationBuilder(Reservation.Outcome.NO_SUCH_VACCINE, username, vaccine, from)
+                    .build();
+        } else if (doses == 0) {
+            return new Reservation.ReservationBuilder(Reservation.Outcome.OUT_OF_STOCK, username, vaccine, from)
+                    .build();
+        }
+        java.sql.Date last = java.sql.Date.valueOf(from.toLocalDate().plusDays(EARLIEST_SEARCH_DAYS));
+        while (!from.after(last)) {
+            Map<java.sql.Date, List<String>> days = ScheduleView.searchCaregivers(from, last, EARLIEST_BATCH_DAYS);
+            if (days.isEmpty()) {
+                break;
             }
-            if (availableVaccines == 0) {
-                System.out.println("No vaccines available!");
+            java.sql.Date day = null;
+            for (java.sql.Date open : days.keySet()) {
+                day = open;
+                Reservation reservation = reserveAppointment(vaccine, day, SlotSchedule.FIRST, SlotSchedule.LAST,
+                        true);
+                // on NO_CAREGIVER or CONFLICT the date was taken since the search, so move on to the next one
+                if (reservation.isReserved() || reservation.getOutcome() == Reservation.Outcome.OUT_OF_STOCK
+                        || reservation.getOutcome() == Reservation.Outcome.NO_SUCH_VACCINE) {
+                    return reservation;
+                }
             }
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+            from = java.sql.Date.valueOf(day.toLocalDate().plusDays(1));
         }
+        return new Reservation.ReservationBuilder(Reservation.Outcome.NO_CAREGIVER, username, vaccine, after).build();
     }
 
-    public String reserveAppointment(String caregiver, String vaccine, Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    public CompletableFuture<Reservation> reserveEarliestAsync(String vaccine, Date after) {
+        return AsyncExecutor.getInstance().supply(() -> reserveEarliest(vaccine, after));
+    }
 
-        String ID = caregiver.substring(0, 1) + username.substring(0, 1) + vaccine.substring(0, 1) + d.toString();
-        String searchAppointment = "SELECT * FROM Appointments WHERE AppointmentID = ?";
-        String reserveAppointment = "INSERT INTO Appointments VALUES (?, ?, ?, ?, ?)";
-        String deleteAvailability = "DELETE FROM Availabilities WHERE Username = ? AND Time = ?";
+    private Reservation reserveAppointment(String vaccine, java.sql.Date d, Time from, Time to, boolean leastBooked)
+            throws SQLException {
+        // resolve the vaccine before the transaction: an inventory miss borrows a connection of its own, which
+        // must not wait for the pool while this reservation holds a connection and slot locks
+        if (VaccineInventory.getInstance().getDoses(vaccine) < 0) {
+            return new Reservation.ReservationBuilder(Reservation.Outcome.NO_SUCH_VACCINE, username, vaccine, d)
+                    .build();
+        }
+        long start = System.nanoTime();
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+        Reservation reservation;
         try {
-            PreparedStatement searchStatement = con.prepareStatement(searchAppointment);
-            searchStatement.setString(1, ID);
-            ResultSet resultSet = searchStatement.executeQuery();
-            if (resultSet.isBeforeFirst()) {
-                System.out.println("Already have an appointment at this time!");
-                return "";
+            reservation = reserveWithRetry(pool, con, vaccine, d, from, to, leastBooked);
+        } catch (SQLException | RuntimeException e) {
+            RESERVE.failed(e);
+            throw e;
+        } finally {
+            pool.returnConnection(con);
+            RESERVE.record(System.nanoTime() - start);
+        }
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        if (reservation.isReserved()) {
+            if (reservation.isDayFilled()) {
+                index.remove(d, reservation.getCaregiverName());
+            }
+        } else if (index.isLoaded() && (reservation.getOutcome() == Reservation.Outcome.CONFLICT
+                || reservation.getOutcome() == Reservation.Outcome.NO_CAREGIVER)) {
+            // the index may have offered caregivers that are no longer available
+            index.refresh(d);
+        }
+        return reservation;
+    }
+
+    public CompletableFuture<Reservation> reserveAppointmentAsync(String vaccine, Date d) {
+        return AsyncExecutor.getInstance().supply(() -> reserveAppointment(vaccine, d));
+    }
+
+    private Reservation reserveWithRetry(ConnectionPool pool, Connection con, String vaccine, java.sql.Date d,
+                                         Time from, Time to, boolean leastBooked) throws SQLException {
+        con.setAutoCommit(false);
+        BookingLocks.Guard guard = BookingLocks.getInstance().newGuard();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                // a RESERVED result holds a dose from the inventory and the booking locks until it is committed
+                // or released
+                try {
+                    Reservation reservation = tryReserve(pool, con, vaccine, d, from, to, leastBooked, guard);
+                    if (reservation.isReserved()) {
+                        try {
+                            con.commit();
+                        } catch (SQLException e) {
+                            VaccineInventory.getInstance().release(vaccine);
+                            throw e;
+                        }
+                        VaccineInventory.getInstance().booked(vaccine);
+                    } else {
+                        con.rollback();
+                    }
+                    return reservation;
+                } finally {
+                    guard.release();
+                }
+            } catch (SQLException e) {
+                con.rollback();
+                if (!isRetryable(e)) {
+                    throw e;
+                }
+                if (attempt >= MAX_RESERVE_ATTEMPTS) {
+                    return new Reservation.ReservationBuilder(Reservation.Outcome.CONFLICT, username, vaccine, d)
+                            .build();
+                }
+                backOff(attempt);
             }
-            PreparedStatement reserveStatement = con.prepareStatement(reserveAppointment);
+        }
+    }
+
+    private Reservation tryReserve(ConnectionPool pool, Connection con, String vaccine, java.sql.Date d, Time from,
+                                   Time to, boolean leastBooked, BookingLocks.Guard guard) throws SQLException {
+        // statements touch Availabilities, then Appointments so that concurrent reservations and cancellations
+        // acquire locks in the same order; doses are taken from the in-memory inventory
+        List<Availability> candidates = Availability.searchSlots(pool, con, d, from, to);
+        if (candidates.isEmpty()) {
+            return new Reservation.ReservationBuilder(Reservation.Outcome.NO_CAREGIVER, username, vaccine, d).build();
+        }
+        // spread load across caregivers; a concurrent reservation may claim a slot first, so fall through the list.
+        // The sort is stable, so ties keep the shuffled order.
+        Collections.shuffle(candidates);
+        Comparator<Availability> order = Comparator.comparing(Availability::getTime);
+        if (leastBooked) {
+            Map<String, Integer> load = weeklyLoad(pool, con, d);
+            order = order.thenComparingInt(candidate -> load.getOrDefault(candidate.getUsername(), 0));
+        }
+        candidates.sort(order.thenComparing(Availability::getSlot));
+        Availability claimed = null;
+        Availability.Claim claim = Availability.Claim.UNAVAILABLE;
+        for (Availability candidate : candidates) {
+            // only bookings of the same caregiver and date wait for each other; the claimed one stays locked
+            guard.lock(candidate.getUsername(), d, vaccine);
+            claim = Availability.claim(pool, con, d, candidate.getSlot(), candidate.getUsername());
+            if (claim != Availability.Claim.UNAVAILABLE) {
+                claimed = candidate;
+                break;
+            }
+        }
+        if (claimed == null) {
+            return new Reservation.ReservationBuilder(Reservation.Outcome.CONFLICT, username, vaccine, d).build();
+        }
+
+        String caregiver = claimed.getUsername();
+        // the index lists caregivers per day, so it only changes once the caregiver's last slot that day is gone
+        boolean dayFilled = claim == Availability.Claim.FILLED
+                && (SlotSchedule.getInstance().isDaily() || !Availability.hasSlots(pool, con, d, caregiver));
+        String ID = AppointmentIdGenerator.getInstance().nextId();
+        VaccineInventory inventory = VaccineInventory.getInstance();
+        VaccineInventory.Acquisition acquisition = inventory.tryAcquire(vaccine);
+        if (acquisition == VaccineInventory.Acquisition.NO_SUCH_VACCINE) {
+            return new Reservation.ReservationBuilder(Reservation.Outcome.NO_SUCH_VACCINE, username, vaccine, d).build();
+        } else if (acquisition == VaccineInventory.Acquisition.OUT_OF_STOCK) {
+            return new Reservation.ReservationBuilder(Reservation.Outcome.OUT_OF_STOCK, username, vaccine, d).build();
+        }
+        try (PreparedStatement reserveStatement = pool.prepare(con, Query.APPOINTMENT_INSERT)) {
             reserveStatement.setString(1, caregiver);
             reserveStatement.setString(2, username);
             reserveStatement.setString(3, vaccine);
-            reserveStatement.setDate(4, (java.sql.Date) d);
+            reserveStatement.setDate(4, d);
             reserveStatement.setString(5, ID);
+            reserveStatement.setTime(6, claimed.getSlot());
             reserveStatement.executeUpdate();
-            PreparedStatement deleteStatement = con.prepareStatement(deleteAvailability);
-            deleteStatement.setString(1, caregiver);
-            deleteStatement.setDate(2, (java.sql.Date) d);
-            deleteStatement.executeUpdate();
-            return ID;
         } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+            inventory.release(vaccine);
+            throw e;
+        }
+        return new Reservation.ReservationBuilder(Reservation.Outcome.RESERVED, username, vaccine, d)
+                .caregiver(caregiver)
+                .slot(claimed.getSlot())
+                .appointmentID(ID)
+                .dayFilled(dayFilled)
+                .build();
+    }
+
+    // counts each caregiver's appointments in the Monday-to-Sunday week of d. The count is a plain read whose
+    // shared locks are released when it finishes, so it does not upset the lock order above.
+    private static Map<String, Integer> weeklyLoad(ConnectionPool pool, Connection con, java.sql.Date d)
+            throws SQLException {
+        LocalDate monday = d.toLocalDate().with(DayOfWeek.MONDAY);
+        Map<String, Integer> load = new HashMap<String, Integer>();
+        try (PreparedStatement statement = pool.prepare(con, Query.APPOINTMENT_LOAD_BY_CAREGIVER)) {
+            statement.setDate(1, java.sql.Date.valueOf(monday));
+            statement.setDate(2, java.sql.Date.valueOf(monday.plusDays(6)));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    load.put(resultSet.getString("CaregiverName"), resultSet.getInt("Booked"));
+                }
+            }
+        }
+        return load;
+    }
+
+    // deadlock victims (SQL Server error 1205) and serialization failures (SQLState 40001) are safe to retry
+    private static boolean isRetryable(SQLException e) {
+        return e.getErrorCode() == 1205 || "40001".equals(e.getSQLState());
+    }
+
+    private static void backOff(int attempt) throws SQLException {
+        try {
+            Thread.sleep((long) (Math.random() * 10 * attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while retrying reservation", e);
         }
     }
 
     public String cancelAppointment(String appointmentID) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        long start = System.nanoTime();
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
 
-        String searchAppointment = "SELECT CaregiverName, Date, VaccineName FROM Appointments WHERE AppointmentID = ?";
-        String cancelAppointment = "DELETE FROM Appointments WHERE AppointmentID = ?";
-        String recoverAvailability = "INSERT INTO Availabilities VALUES (?, ?)";
         String vaccine = "";
         try {
-            PreparedStatement searchStatement = con.prepareStatement(searchAppointment);
-            searchStatement.setString(1, appointmentID);
-            ResultSet resultSet = searchStatement.executeQuery();
-            if (!resultSet.isBeforeFirst()) {
-                System.out.println("No such appointment. Please re-enter the appointment ID!");
-                return vaccine;
+            String caregiver;
+            java.sql.Date d;
+            Time slot;
+            try (PreparedStatement searchStatement = pool.prepare(con, Query.APPOINTMENT_GET)) {
+                searchStatement.setString(1, appointmentID);
+                try (ResultSet resultSet = searchStatement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        System.out.println("No such appointment. Please re-enter the appointment ID!");
+                        return vaccine;
+                    }
+                    String patient = resultSet.getString("PatientName");
+                    if (!this.username.equals(patient)) {
+                        System.out.println("Don't cancel other people's appointment!");
+                        return vaccine;
+                    }
+                    caregiver = resultSet.getString("CaregiverName");
+                    d = resultSet.getDate("Date");
+                    slot = resultSet.getTime("Slot");
+                    vaccine = resultSet.getString("VaccineName");
+                }
             }
-            resultSet.next();
-            String patient = resultSet.getString("PatientName");
-            if (!this.username.equals(patient)) {
-                System.out.println("Don't cancel other people's appointment!");
-                return vaccine;
+            try (BookingLocks.Guard guard = BookingLocks.getInstance().newGuard()) {
+                guard.lockSlot(caregiver, d);
+                try (PreparedStatement cancelStatement = pool.prepare(con, Query.APPOINTMENT_DELETE)) {
+                    cancelStatement.setString(1, appointmentID);
+                    if (cancelStatement.executeUpdate() == 0) {
+                        // cancelled concurrently, e.g. by the caregiver
+                        System.out.println("No such appointment. Please re-enter the appointment ID!");
+                        return "";
+                    }
+                }
+                Availability.release(pool, con, d, slot, caregiver);
             }
-            String caregiver = resultSet.getString("CaregiverName");
-            java.sql.Date d = resultSet.getDate("Date");
-            vaccine = resultSet.getString("VaccineName");
-            PreparedStatement cancelStatement = con.prepareStatement(cancelAppointment);
-            cancelStatement.setString(1, appointmentID);
-            cancelStatement.executeUpdate();
-            PreparedStatement recoverStatement = con.prepareStatement(recoverAvailability);
-            recoverStatement.setDate(1, d);
-            recoverStatement.setString(2, caregiver);
-            recoverStatement.executeUpdate();
+            AvailabilityIndex.getInstance().add(d, caregiver);
             return vaccine;
         } catch (SQLException e) {
-            throw new SQLException();
+            CANCEL.failed(e);
+            throw e;
         } finally {
-            cm.closeConnection();
+            pool.returnConnection(con);
+            CANCEL.record(System.nanoTime() - start);
         }
     }
 
+    public CompletableFuture<String> cancelAppointmentAsync(String appointmentID) {
+        return AsyncExecutor.getInstance().supply(() -> cancelAppointment(appointmentID));
+    }
+
     public void showAppointment() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        long start = System.nanoTime();
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
 
-        String showAppointment = "SELECT * FROM Appointments WHERE PatientName = ?";
-        try {
-            PreparedStatement statement = con.prepareStatement(showAppointment);
+        try (PreparedStatement statement = pool.prepare(con, Query.APPOINTMENTS_BY_PATIENT)) {
             statement.setString(1, this.username);
-            ResultSet resultSet = statement.executeQuery();
-            if (!resultSet.isBeforeFirst()) {
-                System.out.println("You have no appointment");
-                return;
-            }
-            while (resultSet.next()) {
-                String appointmentID = resultSet.getString("AppointmentID");
-                String vaccine = resultSet.getString("VaccineName");
-                Date date = resultSet.getDate("Date");
-                String caregiver = resultSet.getString("CaregiverName");
-                System.out.println("appointmentID : " + appointmentID + ", vaccine : " + vaccine +
-                        ", date : " + date + ", caregiver : " + caregiver);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.isBeforeFirst()) {
+                    System.out.println("You have no appointment");
+                    return;
+                }
+                while (resultSet.next()) {
+                    String appointmentID = resultSet.getString("AppointmentID");
+                    String vaccine = resultSet.getString("VaccineName");
+                    Date date = resultSet.getDate("Date");
+                    String caregiver = resultSet.getString("CaregiverName");
+                    System.out.println("appointmentID : " + appointmentID + ", vaccine : " + vaccine +
+                            ", date : " + date + ", caregiver : " + caregiver);
+                }
             }
         } catch (SQLException e) {
-            throw new SQLException();
+            SHOW_APPOINTMENTS.failed(e);
+            throw e;
         } finally {
-            cm.closeConnection();
+            pool.returnConnection(con);
+            SHOW_APPOINTMENTS.record(System.nanoTime() - start);
         }
     }
 }
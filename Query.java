@@ -0,0 +1,79 @@
+package scheduler.db;
+
+/**
+ * Every SQL statement the scheduler runs, defined once by name. Prepared statements are cached per pooled
+ * connection under these names, see {@link ConnectionPool#prepare(java.sql.Connection, Query)}.
+ */
+public enum Query {
+    CAREGIVER_INSERT("INSERT INTO Caregivers VALUES (? , ?, ?)"),
+    CAREGIVER_GET("SELECT Salt, Hash FROM Caregivers WHERE Username = ?"),
+    CAREGIVER_UPDATE_HASH("UPDATE Caregivers SET Hash = ? WHERE Username = ?"),
+    CAREGIVER_EXISTS("SELECT 1 FROM Caregivers WHERE Username = ?"),
+    CAREGIVER_USERNAMES("SELECT Username FROM Caregivers"),
+    CAREGIVER_COUNT("SELECT COUNT(*) FROM Caregivers"),
+
+    PATIENT_INSERT("INSERT INTO Patients VALUES (? , ?, ?)"),
+    PATIENT_GET("SELECT Salt, Hash FROM Patients WHERE Username = ?"),
+    PATIENT_UPDATE_HASH("UPDATE Patients SET Hash = ? WHERE Username = ?"),
+    PATIENT_EXISTS("SELECT 1 FROM Patients WHERE Username = ?"),
+    PATIENT_USERNAMES("SELECT Username FROM Patients"),
+    PATIENT_COUNT("SELECT COUNT(*) FROM Patients"),
+
+    AVAILABILITY_INSERT("INSERT INTO Availabilities (Time, Slot, Username, Capacity) VALUES (?, ?, ?, ?)"),
+    AVAILABILITY_CLAIM("UPDATE Availabilities SET Capacity = Capacity - 1 "
+            + "WHERE Time = ? AND Slot = ? AND Username = ? AND Capacity > 0"),
+    AVAILABILITY_PURGE("DELETE FROM Availabilities WHERE Time = ? AND Slot = ? AND Username = ? AND Capacity = 0"),
+    AVAILABILITY_RELEASE("UPDATE Availabilities SET Capacity = Capacity + 1 "
+            + "WHERE Time = ? AND Slot = ? AND Username = ?"),
+    AVAILABILITY_BY_TIME("SELECT DISTINCT Username FROM Availabilities WHERE Time = ?"),
+    AVAILABILITY_ALL("SELECT DISTINCT Time, Username FROM Availabilities"),
+    AVAILABILITY_RANGE("SELECT DISTINCT Time, Username FROM Availabilities WHERE Time BETWEEN ? AND ? ORDER BY Time"),
+    AVAILABILITY_SLOTS("SELECT Slot, Username, Capacity FROM Availabilities "
+            + "WHERE Time = ? AND Slot BETWEEN ? AND ? ORDER BY Slot"),
+    AVAILABILITY_SLOTS_RANGE("SELECT Time, Slot, Username, Capacity FROM Availabilities "
+            + "WHERE Time BETWEEN ? AND ? ORDER BY Time, Slot"),
+    AVAILABILITY_CAREGIVER_DAY("SELECT TOP (1) Slot FROM Availabilities WHERE Username = ? AND Time = ?"),
+    AVAILABILITY_CAREGIVER_RANGE("SELECT DISTINCT Time FROM Availabilities "
+            + "WHERE Username = ? AND Time BETWEEN ? AND ?"),
+
+    APPOINTMENT_INSERT("INSERT INTO Appointments (CaregiverName, PatientName, VaccineName, Date, AppointmentID, Slot) "
+            + "VALUES (?, ?, ?, ?, ?, ?)"),
+    APPOINTMENT_GET("SELECT CaregiverName, PatientName, Date, Slot, VaccineName FROM Appointments "
+            + "WHERE AppointmentID = ?"),
+    APPOINTMENT_DELETE("DELETE FROM Appointments WHERE AppointmentID = ?"),
+    APPOINTMENT_CAREGIVER_RANGE("SELECT Date FROM Appointments WHERE CaregiverName = ? AND Date BETWEEN ? AND ?"),
+    // only columns of the covering indexes IX_Appointments_CaregiverName_Date and IX_Appointments_PatientName_Date
+    APPOINTMENTS_BY_CAREGIVER("SELECT AppointmentID, VaccineName, Date, PatientName FROM Appointments "
+            + "WHERE CaregiverName = ?"),
+    APPOINTMENTS_BY_PATIENT("SELECT AppointmentID, VaccineName, Date, CaregiverName FROM Appointments "
+            + "WHERE PatientName = ?"),
+    APPOINTMENT_LOAD_BY_CAREGIVER("SELECT CaregiverName, COUNT(*) AS Booked FROM Appointments "
+            + "WHERE Date BETWEEN ? AND ? GROUP BY CaregiverName"),
+    APPOINTMENT_COUNT_BY_VACCINE("SELECT COUNT(*) AS Booked FROM Appointments WHERE VaccineName = ?"),
+
+    VACCINE_INSERT("INSERT INTO vaccines VALUES (?, ?)"),
+    VACCINE_ADD_DOSES("UPDATE vaccines SET Doses = Doses + ? WHERE name = ?;"),
+    VACCINE_REMOVE_DOSES("UPDATE vaccines SET Doses = Doses - ? WHERE name = ? AND Doses >= ?;"),
+    VACCINE_DOSES("SELECT Doses FROM Vaccines WHERE Name = ?"),
+    VACCINE_ALL("SELECT Name, Doses FROM Vaccines"),
+    VACCINE_LIST_AVAILABLE("SELECT Name, Doses FROM Vaccines WHERE Doses > 0 ORDER BY Name "
+            + "OFFSET ? ROWS FETCH NEXT ? ROWS ONLY"),
+
+    VACCINE_BOOKINGS_INSERT("INSERT INTO VaccineBookings (Name, Booked) VALUES (?, 0)"),
+    VACCINE_BOOKINGS_INIT("INSERT INTO VaccineBookings SELECT v.Name, (SELECT COUNT(*) FROM Appointments a "
+            + "WHERE a.VaccineName = v.Name) FROM Vaccines v "
+            + "WHERE NOT EXISTS (SELECT * FROM VaccineBookings b WHERE b.Name = v.Name)"),
+    VACCINE_CHARGE_DOSES("UPDATE Vaccines SET Doses = Doses - (? - "
+            + "(SELECT Booked FROM VaccineBookings WHERE Name = ?)) WHERE Name = ?"),
+    VACCINE_BOOKINGS_UPDATE("UPDATE VaccineBookings SET Booked = ? WHERE Name = ?");
+
+    private final String sql;
+
+    Query(String sql) {
+        this.sql = sql;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+}
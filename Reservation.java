@@ -0,0 +1,117 @@
+package scheduler.model;
+
+import java.sql.Time;
+import java.util.Date;
+
+public class Reservation {
+    // the result of a single reservation attempt
+    public enum Outcome {
+        RESERVED,
+        NO_CAREGIVER,
+        // only reported by batch reservations, which name the patient explicitly
+        NO_SUCH_PATIENT,
+        NO_SUCH_VACCINE,
+        OUT_OF_STOCK,
+        // every available caregiver was claimed by a concurrent reservation, or retries were exhausted
+        CONFLICT
+    }
+
+    private final Outcome outcome;
+    private final String caregiverName;
+    private final String patientName;
+    private final String vaccineName;
+    private final Date date;
+    private final String appointmentID;
+    private final Time slot;
+    private final boolean dayFilled;
+
+    public static class ReservationBuilder {
+        private final Outcome outcome;
+        private final String patientName;
+        private final String vaccineName;
+        private final Date date;
+        private String caregiverName;
+        private String appointmentID;
+        private Time slot;
+        private boolean dayFilled;
+
+        public ReservationBuilder(Outcome outcome, String patientName, String vaccineName, Date date) {
+            this.outcome = outcome;
+            this.patientName = patientName;
+            this.vaccineName = vaccineName;
+            this.date = date;
+        }
+
+        public ReservationBuilder caregiver(String caregiverName) {
+            this.caregiverName = caregiverName;
+            return this;
+        }
+
+        public ReservationBuilder appointmentID(String appointmentID) {
+            this.appointmentID = appointmentID;
+            return this;
+        }
+
+        public ReservationBuilder slot(Time slot) {
+            this.slot = slot;
+            return this;
+        }
+
+        // set when the booking took the caregiver's last open slot of the day
+        ReservationBuilder dayFilled(boolean dayFilled) {
+            this.dayFilled = dayFilled;
+            return this;
+        }
+
+        public Reservation build() {
+            return new Reservation(this);
+        }
+    }
+
+    private Reservation(ReservationBuilder builder) {
+        this.outcome = builder.outcome;
+        this.caregiverName = builder.caregiverName;
+        this.patientName = builder.patientName;
+        this.vaccineName = builder.vaccineName;
+        this.date = builder.date;
+        this.appointmentID = builder.appointmentID;
+        this.slot = builder.slot;
+        this.dayFilled = builder.dayFilled;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public boolean isReserved() {
+        return outcome == Outcome.RESERVED;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getAppointmentID() {
+        return appointmentID;
+    }
+
+    public Time getSlot() {
+        return slot;
+    }
+
+    boolean isDayFilled() {
+        return dayFilled;
+    }
+}
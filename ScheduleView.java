@@ -0,0 +1,191 @@
+package scheduler.model;
+
+import scheduler.db.AsyncExecutor;
+import scheduler.db.ConnectionPool;
+import scheduler.db.Query;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * What a patient needs to pick an appointment on one date: the caregivers available that day, their open slots
+ * when days are split into several slots, and the vaccines that still have doses. Rendering is left to the
+ * caller. Multi-day searches stream their dates through {@link #searchCaregivers(Date, Date, int, DayConsumer)}.
+ */
+public class ScheduleView {
+    private final Date date;
+    private final List<String> caregivers;
+    private final List<Availability> slots;
+    private final Map<String, Integer> vaccines;
+
+    // receives the caregivers available on one date of a range search
+    public interface DayConsumer {
+        void accept(Date date, List<String> caregivers);
+    }
+
+    public static class ScheduleViewGetter {
+        private final Date date;
+        private List<String> caregivers;
+        private List<Availability> slots = Collections.emptyList();
+        private Map<String, Integer> vaccines;
+
+        public ScheduleViewGetter(Date date) {
+            this.date = date;
+        }
+
+        // the two lookups are independent, so the vaccine listing runs while the caregivers are searched
+        public ScheduleView get() throws SQLException {
+            CompletableFuture<Map<String, Integer>> inStock = AsyncExecutor.getInstance().supply(
+                    ScheduleViewGetter::listVaccines);
+            try {
+                searchAvailable();
+            } catch (SQLException e) {
+                inStock.cancel(true);
+                throw e;
+            }
+            this.vaccines = AsyncExecutor.await(inStock);
+            return new ScheduleView(this);
+        }
+
+        // runs both lookups as separate tasks and combines them; no task waits for another, so a busy pool cannot
+        // fill up with tasks blocked on work queued behind them
+        public CompletableFuture<ScheduleView> getAsync() {
+            AsyncExecutor async = AsyncExecutor.getInstance();
+            CompletableFuture<Map<String, Integer>> inStock = async.supply(ScheduleViewGetter::listVaccines);
+            CompletableFuture<ScheduleViewGetter> available = async.supply(this::searchAvailable);
+            available.whenComplete((getter, error) -> {
+                if (error != null) {
+                    inStock.cancel(true);
+                }
+            });
+            return available.thenCombine(inStock, (getter, vaccines) -> {
+                getter.vaccines = vaccines;
+                return new ScheduleView(getter);
+            });
+        }
+
+        private ScheduleViewGetter searchAvailable() throws SQLException {
+            this.caregivers = searchCaregivers(date);
+            if (!SlotSchedule.getInstance().isDaily() && !caregivers.isEmpty()) {
+                this.slots = Availability.searchSlots(date, SlotSchedule.FIRST, SlotSchedule.LAST);
+            }
+            return this;
+        }
+
+        private static Map<String, Integer> listVaccines() throws SQLException {
+            Map<String, Integer> vaccines = new LinkedHashMap<String, Integer>();
+            Vaccine.listAvailable(0, Integer.MAX_VALUE, vaccines::put);
+            return vaccines;
+        }
+    }
+
+    private ScheduleView(ScheduleViewGetter getter) {
+        this.date = getter.date;
+        this.caregivers = Collections.unmodifiableList(getter.caregivers);
+        this.slots = Collections.unmodifiableList(getter.slots);
+        this.vaccines = Collections.unmodifiableMap(getter.vaccines);
+    }
+
+    // returns the caregivers available on d, from the availability index when it is loaded
+    static List<String> searchCaregivers(Date d) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        if (index.isLoaded()) {
+            return index.search(d);
+        }
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+
+        List<String> availableCaregiver = new ArrayList<String>();
+        try (PreparedStatement statement = pool.prepare(con, Query.AVAILABILITY_BY_TIME)) {
+            statement.setDate(1, d);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    String caregiver = resultSet.getString("Username");
+                    availableCaregiver.add(caregiver);
+                }
+            }
+            return availableCaregiver;
+        } finally {
+            pool.returnConnection(con);
+        }
+    }
+
+    // Streams the dates from..to (inclusive) that have at least one available caregiver to the consumer, in date
+    // order, and stops after limit dates; returns the number of dates delivered. Without the availability index
+    // the whole range is read with one query and grouped by date as the rows arrive.
+    public static int searchCaregivers(Date from, Date to, int limit, DayConsumer consumer) throws SQLException {
+        if (to.before(from)) {
+            throw new IllegalArgumentException("The end date cannot be before the start date!");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit cannot be negative!");
+        }
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        if (index.isLoaded()) {
+            return index.search(from, to, limit, consumer);
+        }
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+
+        try (PreparedStatement statement = pool.prepare(con, Query.AVAILABILITY_RANGE)) {
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                int count = 0;
+                Date day = null;
+                List<String> caregivers = new ArrayList<String>();
+                while (count < limit && resultSet.next()) {
+                    Date time = resultSet.getDate("Time");
+                    if (day != null && !day.equals(time)) {
+                        consumer.accept(day, caregivers);
+                        caregivers = new ArrayList<String>();
+                        count++;
+                    }
+                    day = time;
+                    caregivers.add(resultSet.getString("Username"));
+                }
+                if (day != null && count < limit) {
+                    consumer.accept(day, caregivers);
+                    count++;
+                }
+                return count;
+            }
+        } finally {
+            pool.returnConnection(con);
+        }
+    }
+
+    // collects a range search into a map from date to caregivers, ordered by date
+    public static Map<Date, List<String>> searchCaregivers(Date from, Date to, int limit) throws SQLException {
+        Map<Date, List<String>> days = new LinkedHashMap<Date, List<String>>();
+        searchCaregivers(from, to, limit, days::put);
+        return days;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public List<String> getCaregivers() {
+        return caregivers;
+    }
+
+    // the open slots in slot order; empty when each day is a single slot
+    public List<Availability> getSlots() {
+        return slots;
+    }
+
+    // vaccine name to available doses, ordered by name
+    public Map<String, Integer> getVaccines() {
+        return vaccines;
+    }
+}
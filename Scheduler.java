@@ -1,32 +1,120 @@
 package scheduler;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.AsyncExecutor;
+import scheduler.db.ConnectionPool;
+import scheduler.db.SchemaMigrator;
+import scheduler.model.Availability;
+import scheduler.model.AvailabilityIndex;
+import scheduler.model.AvailabilityUpload;
+import scheduler.model.BatchReservation;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.ScheduleView;
+import scheduler.model.SlotSchedule;
+import scheduler.model.UsernameRegistry;
 import scheduler.model.Vaccine;
+import scheduler.model.VaccineInventory;
+import scheduler.util.Metrics;
+import scheduler.util.OperationStats;
+import scheduler.util.PasswordHasher;
+import scheduler.util.PasswordPolicy;
 import scheduler.util.Util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.sql.Time;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    private static final int DEFAULT_PORT = 8414;
+
+    private static final int MAX_UPLOAD_DAYS = 366;
+
+    private static final int MAX_SEARCH_DAYS = 366;
+
+    // every command the scheduler understands, keyed by name
+    private static final CommandRegistry COMMANDS = createCommands();
+
+    private static final PasswordPolicy PASSWORD_POLICY = new PasswordPolicy.PasswordPolicyBuilder().build();
 
     public static void main(String[] args) {
+        loadCaches();
+        // "--server [port]" serves many clients over TCP instead of a single user on the terminal
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+            try {
+                new SchedulerServer(port).serve();
+            } catch (IOException e) {
+                System.out.println("Server stopped");
+                e.printStackTrace();
+            } finally {
+                shutdown();
+            }
+            return;
+        }
+        printGreeting();
+        // read input from user
+        BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
+        runSession(new Session(), r);
+        shutdown();
+    }
+
+    // migrates the schema and warms the in-memory copies of hot tables; commands fall back to the database if
+    // loading fails
+    private static void loadCaches() {
+        try {
+            SchemaMigrator.migrate();
+        } catch (SQLException e) {
+            System.out.println("Could not migrate the database schema");
+            e.printStackTrace();
+        }
+        try {
+            // also charges the stock for appointments a crashed run did not write back
+            VaccineInventory.getInstance().load();
+        } catch (SQLException e) {
+            System.out.println("Could not load the vaccine inventory");
+            e.printStackTrace();
+        }
+        try {
+            UsernameRegistry.getInstance().load();
+        } catch (SQLException e) {
+            System.out.println("Could not load the username filters, checking usernames in the database instead");
+            e.printStackTrace();
+        }
+        if (!Boolean.parseBoolean(System.getProperty("scheduler.availabilityIndex.enabled", "true"))) {
+            return;
+        }
+        try {
+            AvailabilityIndex.getInstance().load();
+        } catch (SQLException e) {
+            System.out.println("Could not load the availability index, searching the database instead");
+            e.printStackTrace();
+        }
+    }
+
+    private static void shutdown() {
+        AsyncExecutor.getInstance().shutdown();
+        VaccineInventory.getInstance().shutdown();
+        PasswordHasher.getInstance().shutdown();
+        SessionStore.getInstance().flush();
+        ConnectionPool.getInstance().shutdown();
+    }
+
+    static void printGreeting() {
         // printing greetings text
         System.out.println();
         System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
@@ -35,75 +123,104 @@ public class Scheduler {
         System.out.println("> create_caregiver <username> <password>");
         System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
         System.out.println("> login_caregiver <username> <password>");
+        System.out.println("> resume <session_token>");
         System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
+        System.out.println("> search_caregiver_schedule <from> <to> [first-N]");
+        System.out.println("> reserve <date> <vaccine> [slot]");  // TODO: implement reserve (Part 2)
+        System.out.println("> reserve_earliest <vaccine> [after-date]");
         System.out.println("> upload_availability <date>");
+        System.out.println("> upload_availability <from> <to> [weekdays]");
         System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
         System.out.println("> add_doses <vaccine> <number>");
+        System.out.println("> remove_doses <vaccine> <number>");
+        System.out.println("> import_accounts <csv> [chunk_size]");
+        System.out.println("> batch_reserve <csv> [chunk_size]");
         System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
+        System.out.println("> stats");
         System.out.println("> logout");  // TODO: implement logout (Part 2)
         System.out.println("> quit");
         System.out.println();
+    }
 
-        // read input from user
-        BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
+    // runs the command loop for one user until they quit or their input ends
+    static void runSession(Session session, BufferedReader r) {
         while (true) {
             System.out.print("> ");
+            System.out.flush();
             String response = "";
             try {
                 response = r.readLine();
             } catch (IOException e) {
                 System.out.println("Please try again!");
-            }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
                 continue;
             }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
+            if (response == null) {
                 return;
-            } else {
-                System.out.println("Invalid operation name!");
+            }
+            // a failing command must not end the session, or with it a server connection
+            try {
+                if (!execute(session, response)) {
+                    return;
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Please try again!");
+                e.printStackTrace();
             }
         }
     }
 
-    private static void createPatient(String[] tokens) {
-        if (currentCaregiver != null || currentPatient != null ) {
-            System.out.println("Already logged-in!");
-            return;
-        }
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
-        }
+    // performs one command line on behalf of the session, returns false once the user quits
+    static boolean execute(Session session, String response) {
+        // a login ends with its token, so an expired or evicted session is logged out before the command runs
+        if (session.getToken() != null && SessionStore.getInstance().lookup(session.getToken()) == null) {
+            session.setPatient(null);
+            session.setCaregiver(null);
+            session.setToken(null);
+            System.out.println("Session expired, please log in again!");
+        }
+        return COMMANDS.dispatch(session, response);
+    }
+
+    private static CommandRegistry createCommands() {
+        CommandRegistry registry = new CommandRegistry();
+        registry.register(new Command.CommandBuilder("create_patient", Scheduler::createPatient)
+                .arity(2).role(Command.Role.LOGGED_OUT).build());
+        registry.register(new Command.CommandBuilder("create_caregiver", Scheduler::createCaregiver)
+                .arity(2).role(Command.Role.LOGGED_OUT).build());
+        registry.register(new Command.CommandBuilder("login_patient", Scheduler::loginPatient)
+                .arity(2).role(Command.Role.LOGGED_OUT).build());
+        registry.register(new Command.CommandBuilder("login_caregiver", Scheduler::loginCaregiver)
+                .arity(2).role(Command.Role.LOGGED_OUT).build());
+        registry.register(new Command.CommandBuilder("resume", Scheduler::resume)
+                .arity(1).role(Command.Role.LOGGED_OUT).build());
+        registry.register(new Command.CommandBuilder("search_caregiver_schedule", Scheduler::searchCaregiverSchedule)
+                .arity(1, 3).role(Command.Role.LOGGED_IN).arityMessage("Please re-enter the date!").build());
+        registry.register(new Command.CommandBuilder("reserve", Scheduler::reserve)
+                .arity(2, 3).role(Command.Role.PATIENT).build());
+        registry.register(new Command.CommandBuilder("reserve_earliest", Scheduler::reserveEarliest)
+                .arity(1, 2).role(Command.Role.PATIENT).build());
+        registry.register(new Command.CommandBuilder("upload_availability", Scheduler::uploadAvailability)
+                .arity(1, 3).role(Command.Role.CAREGIVER).build());
+        registry.register(new Command.CommandBuilder("cancel", Scheduler::cancel)
+                .arity(1).role(Command.Role.LOGGED_IN).build());
+        registry.register(new Command.CommandBuilder("add_doses", Scheduler::addDoses)
+                .arity(2).role(Command.Role.CAREGIVER).build());
+        registry.register(new Command.CommandBuilder("remove_doses", Scheduler::removeDoses)
+                .arity(2).role(Command.Role.CAREGIVER).build());
+        registry.register(new Command.CommandBuilder("import_accounts", Scheduler::importAccounts)
+                .arity(1, 2).role(Command.Role.LOCAL_CAREGIVER).build());
+        registry.register(new Command.CommandBuilder("batch_reserve", Scheduler::batchReserve)
+                .arity(1, 2).role(Command.Role.LOCAL_CAREGIVER).build());
+        registry.register(new Command.CommandBuilder("show_appointments", Scheduler::showAppointments)
+                .role(Command.Role.LOGGED_IN).build());
+        registry.register(new Command.CommandBuilder("stats", Scheduler::stats)
+                .arity(0).role(Command.Role.CAREGIVER).build());
+        registry.register(new Command.CommandBuilder("logout", Scheduler::logout).build());
+        registry.register(new Command.CommandBuilder("quit", Scheduler::quit).endsSession().build());
+        return registry;
+    }
+
+    private static void createPatient(Session session, String[] tokens) {
         String username = tokens[1];
         String password = tokens[2];
 
@@ -115,10 +232,16 @@ public class Scheduler {
             return;
         }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        byte[] hash;
+        try {
+            hash = PasswordHasher.getInstance().hash(password, salt);
+        } catch (RejectedExecutionException e) {
+            System.out.println("Too many requests, try again!");
+            return;
+        }
         try {
-            currentPatient = new Patient.PatientBuilder(username, salt, hash).build();
-            currentPatient.saveToDB();
+            session.setPatient(new Patient.PatientBuilder(username, salt, hash).build());
+            session.getPatient().saveToDB();
             System.out.println(" *** Account created successfully *** ");
         } catch (SQLException e) {
             System.out.println("Create failed");
@@ -126,20 +249,11 @@ public class Scheduler {
         }
     }
 
-    private static void createCaregiver(String[] tokens) {
-        if (currentCaregiver != null || currentPatient != null ) {
-            System.out.println("Already logged-in!");
-            return;
-        }
+    private static void createCaregiver(Session session, String[] tokens) {
         // create_caregiver <username> <password>
-        // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
-        }
         String username = tokens[1];
         String password = tokens[2];
-        // check 2: check if the username has been taken already
+        // check 1: check if the username has been taken already
         if (usernameExistsCaregiver(username)) {
             System.out.println("Username taken, try again!");
             return;
@@ -148,12 +262,18 @@ public class Scheduler {
             return;
         }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        byte[] hash;
+        try {
+            hash = PasswordHasher.getInstance().hash(password, salt);
+        } catch (RejectedExecutionException e) {
+            System.out.println("Too many requests, try again!");
+            return;
+        }
         // create the caregiver
         try {
-            currentCaregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
+            session.setCaregiver(new Caregiver.CaregiverBuilder(username, salt, hash).build());
             // save to caregiver information to our database
-            currentCaregiver.saveToDB();
+            session.getCaregiver().saveToDB();
             System.out.println(" *** Account created successfully *** ");
         } catch (SQLException e) {
             System.out.println("Create failed");
@@ -162,78 +282,68 @@ public class Scheduler {
     }
 
     private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return UsernameRegistry.getInstance().exists(UsernameRegistry.Role.CAREGIVER, username);
         } catch (SQLException e) {
             System.out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
     private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            return resultSet.isBeforeFirst();
+            return UsernameRegistry.getInstance().exists(UsernameRegistry.Role.PATIENT, username);
         } catch (SQLException e) {
             System.out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
     private static boolean weakPassword(String password) {
-        Pattern pattern1 = Pattern.compile("^\\d+$");
-        Matcher matcher1 = pattern1.matcher(password);
-        Pattern patter2 = Pattern.compile("^[a-zA-Z]+$");
-        Matcher matcher2 = patter2.matcher(password);
-        Pattern pattern3 = Pattern.compile("^.*[!@#?]+.*$");
-        Matcher matcher3 = pattern3.matcher(password);
-        if (password.length() < 8) {
-            System.out.println("A strong password should have at least 8 characters!");
-            return true;
-        } else if (matcher1.matches() || matcher2.matches()) {
-            System.out.println("A strong password should be a mixture of letters and numbers!");
-            return true;
-        } else if (password.toLowerCase().equals(password)) {
-            System.out.println("A strong password should be a mixture of both uppercase and lowercase letters!");
-            return true;
-        } else if (!matcher3.matches()) {
-            System.out.println("A strong password should include at least one special character: !, @, #, and ?");
-            return true;
-        }
-        System.out.println("You created a strong password!");
-        return false;
-    }
-
-
-    private static void loginPatient(String[] tokens) {
-        if (currentCaregiver != null || currentPatient != null ) {
-            System.out.println("Already logged-in!");
-            return;
+        EnumSet<PasswordPolicy.Violation> violations = PASSWORD_POLICY.check(password);
+        if (violations.isEmpty()) {
+            System.out.println("You created a strong password!");
+            return false;
+        }
+        // explain the first rule that was broken
+        switch (violations.iterator().next()) {
+            case TOO_SHORT:
+                System.out.println("A strong password should have at least " + PASSWORD_POLICY.getMinLength()
+                        + " characters!");
+                break;
+            case NOT_MIXED_LETTERS_AND_DIGITS:
+                System.out.println("A strong password should be a mixture of letters and numbers!");
+                break;
+            case MISSING_UPPERCASE:
+            case MISSING_LOWERCASE:
+                System.out.println("A strong password should be a mixture of both uppercase and lowercase letters!");
+                break;
+            case MISSING_SPECIAL_CHARACTER:
+                System.out.println("A strong password should include at least one special character: "
+                        + listCharacters(PASSWORD_POLICY.getSpecialCharacters()));
+                break;
         }
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
+        return true;
+    }
+
+    // formats "!@#?" as "!, @, #, and ?"
+    private static String listCharacters(String characters) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < characters.length(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            if (i > 0 && i == characters.length() - 1) {
+                sb.append("and ");
+            }
+            sb.append(characters.charAt(i));
         }
+        return sb.toString();
+    }
+
+    private static void loginPatient(Session session, String[] tokens) {
         String username = tokens[1];
         String password = tokens[2];
 
@@ -248,22 +358,13 @@ public class Scheduler {
             System.out.println("Please try again!");
         } else {
             System.out.println("Patient logged in as: " + username);
-            currentPatient = patient;
+            session.setPatient(patient);
+            issueToken(session, SessionStore.Role.PATIENT, username);
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(Session session, String[] tokens) {
         // login_caregiver <username> <password>
-        // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("Already logged-in!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
-        }
         String username = tokens[1];
         String password = tokens[2];
 
@@ -279,40 +380,80 @@ public class Scheduler {
             System.out.println("Please try again!");
         } else {
             System.out.println("Caregiver logged in as: " + username);
-            currentCaregiver = caregiver;
+            session.setCaregiver(caregiver);
+            issueToken(session, SessionStore.Role.CAREGIVER, username);
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
-        if (tokens.length != 2) {
-            System.out.println("Please re-enter the date!");
+    private static void issueToken(Session session, SessionStore.Role role, String username) {
+        String token = SessionStore.getInstance().issue(role, username);
+        session.setToken(token);
+        System.out.println("Session token: " + token);
+    }
+
+    private static void resume(Session session, String[] tokens) {
+        // resume <session_token> logs back in without the password, e.g. after a reconnect
+        String token = tokens[1];
+        SessionStore.Entry entry = SessionStore.getInstance().lookup(token);
+        if (entry == null) {
+            System.out.println("Unknown or expired session, please log in again!");
             return;
         }
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please log in to perform this operation!");
+        // the token stands in for the password, but the account is loaded as a login would, so it must still exist
+        try {
+            if (entry.getRole() == SessionStore.Role.PATIENT) {
+                Patient patient = new Patient.PatientGetter(entry.getUsername(), null).resume();
+                if (patient == null) {
+                    SessionStore.getInstance().revoke(token);
+                    System.out.println("Unknown or expired session, please log in again!");
+                    return;
+                }
+                session.setPatient(patient);
+                System.out.println("Patient logged in as: " + entry.getUsername());
+            } else {
+                Caregiver caregiver = new Caregiver.CaregiverGetter(entry.getUsername(), null).resume();
+                if (caregiver == null) {
+                    SessionStore.getInstance().revoke(token);
+                    System.out.println("Unknown or expired session, please log in again!");
+                    return;
+                }
+                session.setCaregiver(caregiver);
+                System.out.println("Caregiver logged in as: " + entry.getUsername());
+            }
+        } catch (SQLException e) {
+            System.out.println("Error occurred when logging in");
+            e.printStackTrace();
             return;
         }
+        session.setToken(token);
+    }
 
+    private static void searchCaregiverSchedule(Session session, String[] tokens) {
+        // search_caregiver_schedule <from> <to> [first-N] searches a range of dates
+        if (tokens.length > 2) {
+            searchCaregiverScheduleRange(tokens);
+            return;
+        }
         String date = tokens[1];
-        List<String> availableCaregivers = new ArrayList<String>();
         try {
             Date d = Date.valueOf(date);
-            if (currentCaregiver == null) {
-                availableCaregivers = currentPatient.searchAvailability(d);
-            } else {
-                availableCaregivers = currentCaregiver.searchAvailability(d);
-            }
+            ScheduleView view = new ScheduleView.ScheduleViewGetter(d).get();
+            List<String> availableCaregivers = view.getCaregivers();
             if (availableCaregivers.size() == 0) {
                 System.out.println("No caregivers available at this time!");
             }
             for (int i = 0; i < availableCaregivers.size(); i++) {
                 System.out.println("caregiver : " + availableCaregivers.get(i));
             }
-            System.out.println("Above is the caregivers and vaccines available at the specified date");
-            if (currentCaregiver == null) {
-                currentPatient.showAvailableVaccine();
-            } else {
-                currentCaregiver.showAvailableVaccine();
+            for (Availability slot : view.getSlots()) {
+                System.out.println("slot : " + SlotSchedule.format(slot.getSlot()) + " caregiver : "
+                        + slot.getUsername() + " places : " + slot.getCapacity());
+            }
+            if (view.getVaccines().isEmpty()) {
+                System.out.println("No vaccines available!");
+            }
+            for (Map.Entry<String, Integer> vaccine : view.getVaccines().entrySet()) {
+                System.out.println(Vaccine.format(vaccine.getKey(), vaccine.getValue()));
             }
             System.out.println("Above is the caregivers and vaccines available at the specified date");
         } catch (SQLException e) {
@@ -323,36 +464,54 @@ public class Scheduler {
         }
     }
 
-    private static void reserve(String[] tokens) {
-        if (currentPatient == null) {
-            System.out.println("Please login as a patient first!");
-            return;
-        }
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
+    private static void searchCaregiverScheduleRange(String[] tokens) {
+        try {
+            Date from = Date.valueOf(tokens[1]);
+            Date to = Date.valueOf(tokens[2]);
+            int limit = tokens.length == 4 ? Integer.parseInt(tokens[3]) : Integer.MAX_VALUE;
+            if (limit <= 0) {
+                System.out.println("Please enter a positive number of dates!");
+                return;
+            }
+            if (ChronoUnit.DAYS.between(from.toLocalDate(), to.toLocalDate()) > MAX_SEARCH_DAYS) {
+                System.out.println("Please search at most " + MAX_SEARCH_DAYS + " days at a time!");
+                return;
+            }
+            // dates are printed as they arrive
+            int days = ScheduleView.searchCaregivers(from, to, limit,
+                    (date, caregivers) -> System.out.println(date + " : " + String.join(", ", caregivers)));
+            if (days == 0) {
+                System.out.println("No caregivers available in this period!");
+            }
+            System.out.println("Above is the caregivers available between the specified dates");
+        } catch (SQLException e) {
+            System.out.println("Error occurred when searching caregivers' schedule");
+            e.printStackTrace();
+        } catch (NumberFormatException e) {
+            System.out.println("Please enter a valid number of dates!");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Please enter a valid date range!");
         }
+    }
+
+    private static void reserve(Session session, String[] tokens) {
+        // reserve <date> <vaccine> [slot] takes the earliest open slot unless one is given
         String date = tokens[1];
         String vaccineName = tokens[2];
         try {
             Date d = Date.valueOf(date);
-            List<String> availableCaregivers = currentPatient.searchAvailability(d);
-            if (availableCaregivers.isEmpty()) {
-                System.out.println("No caregiver is available this time! Please choose another date!");
-                return;
-            } else if (checkVaccineAvailability(vaccineName)) {
+            if (tokens.length == 3) {
+                printReservation(session.getPatient().reserveAppointment(vaccineName, d));
                 return;
             }
-            String caregiver = availableCaregivers.get((int)(Math.random() * availableCaregivers.size()));
-            String ID = currentPatient.reserveAppointment(caregiver, vaccineName, d);
-            if (ID.length() == 0) {
+            Time slot;
+            try {
+                slot = SlotSchedule.getInstance().parse(tokens[3]);
+            } catch (DateTimeParseException | IllegalArgumentException e) {
+                System.out.println("Please enter a valid slot!");
                 return;
             }
-            System.out.println("Appointment reserved!");
-            System.out.println("caregiver : " + caregiver);
-            System.out.println("appointmentID : " + ID);
-            Vaccine vaccine = new Vaccine.VaccineGetter(vaccineName).get();
-            vaccine.decreaseAvailableDoses(1);
+            printReservation(session.getPatient().reserveAppointment(vaccineName, d, slot));
         } catch (SQLException e) {
             System.out.println("Error occurred when reserving");
             e.printStackTrace();
@@ -361,51 +520,92 @@ public class Scheduler {
         }
     }
 
-    private static boolean checkVaccineAvailability(String vaccine) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String searchVaccineDoses = "SELECT Doses FROM Vaccines WHERE Name = ?";
+    private static void reserveEarliest(Session session, String[] tokens) {
+        // reserve_earliest <vaccine> [after-date], searching from today by default
+        String vaccineName = tokens[1];
         try {
-            PreparedStatement statement = con.prepareStatement(searchVaccineDoses);
-            statement.setString(1, vaccine);
-            ResultSet resultSet = statement.executeQuery();
-            if (!resultSet.isBeforeFirst()) {
-                System.out.println("No such vaccine! Please re-enter the name!");
-                return !resultSet.isBeforeFirst();
-            } else {
-                resultSet.next();
-                int doses = resultSet.getInt("Doses");
-                if (doses == 0) {
-                    System.out.println("This vaccine is not available now!");
-                    return true;
-                }
+            Date after = tokens.length == 3 ? Date.valueOf(tokens[2]) : Date.valueOf(LocalDate.now());
+            Reservation reservation = session.getPatient().reserveEarliest(vaccineName, after);
+            if (reservation.getOutcome() == Reservation.Outcome.NO_CAREGIVER) {
+                System.out.println("No caregiver is available in the next year! Please try again later!");
+                return;
+            }
+            printReservation(reservation);
+            if (reservation.isReserved()) {
+                System.out.println("date : " + reservation.getDate());
             }
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking vaccine availability");
+            System.out.println("Error occurred when reserving");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+        } catch (IllegalArgumentException e) {
+            System.out.println("Please enter a valid date!");
         }
-        return false;
     }
 
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
-            return;
+    private static void printReservation(Reservation reservation) {
+        switch (reservation.getOutcome()) {
+            case RESERVED:
+                System.out.println("Appointment reserved!");
+                System.out.println("caregiver : " + reservation.getCaregiverName());
+                if (!SlotSchedule.getInstance().isDaily()) {
+                    System.out.println("slot : " + SlotSchedule.format(reservation.getSlot()));
+                }
+                System.out.println("appointmentID : " + reservation.getAppointmentID());
+                break;
+            case NO_CAREGIVER:
+                System.out.println("No caregiver is available this time! Please choose another date!");
+                break;
+            case NO_SUCH_PATIENT:
+                System.out.println("No such patient!");
+                break;
+            case NO_SUCH_VACCINE:
+                System.out.println("No such vaccine! Please re-enter the name!");
+                break;
+            case OUT_OF_STOCK:
+                System.out.println("This vaccine is not available now!");
+                break;
+            case CONFLICT:
+                System.out.println("Caregivers for this date were just booked by someone else! Please try again!");
+                break;
         }
-        String date = tokens[1];
+    }
+
+    private static void uploadAvailability(Session session, String[] tokens) {
+        // upload_availability <date>
+        // upload_availability <from> <to> [weekdays]
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
+            Date from = Date.valueOf(tokens[1]);
+            if (tokens.length == 2) {
+                AvailabilityUpload upload = session.getCaregiver().uploadAvailability(from);
+                if (upload.getStatus() == AvailabilityUpload.Status.ALREADY_AVAILABLE) {
+                    System.out.println("You are already available at this time!");
+                    System.out.println("Failed to upload availability");
+                } else if (upload.getStatus() == AvailabilityUpload.Status.HAS_APPOINTMENT) {
+                    System.out.println("You have an appointment at that time!");
+                    System.out.println("Failed to upload availability");
+                } else {
+                    System.out.println("Availability uploaded!");
+                }
+                return;
+            }
+            Date to = Date.valueOf(tokens[2]);
+            Set<DayOfWeek> weekdays = tokens.length == 4 ? parseWeekdays(tokens[3]) : EnumSet.allOf(DayOfWeek.class);
+            if (ChronoUnit.DAYS.between(from.toLocalDate(), to.toLocalDate()) > MAX_UPLOAD_DAYS) {
+                System.out.println("Please upload at most " + MAX_UPLOAD_DAYS + " days at a time!");
+                return;
+            }
+            List<AvailabilityUpload> uploads = session.getCaregiver().uploadAvailability(from, to, weekdays);
+            int uploaded = 0;
+            for (AvailabilityUpload upload : uploads) {
+                if (upload.isUploaded()) {
+                    uploaded++;
+                } else {
+                    System.out.println(upload.getDate() + " : "
+                            + (upload.getStatus() == AvailabilityUpload.Status.ALREADY_AVAILABLE
+                            ? "already available" : "has an appointment"));
+                }
+            }
+            System.out.println("Availability uploaded for " + uploaded + " of " + uploads.size() + " days!");
         } catch (IllegalArgumentException e) {
             System.out.println("Please enter a valid date!!");
         } catch (SQLException e) {
@@ -414,28 +614,38 @@ public class Scheduler {
         }
     }
 
-    private static void cancel(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please log in to perform this operation!");
-            return;
-        }
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
-            return;
+    // parses a comma separated list of weekdays such as "mon,wed,fri"
+    private static Set<DayOfWeek> parseWeekdays(String list) {
+        Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+        for (String name : list.split(",")) {
+            String prefix = name.trim().toUpperCase(Locale.ROOT);
+            DayOfWeek match = null;
+            for (DayOfWeek day : DayOfWeek.values()) {
+                if (prefix.length() >= 3 && day.name().startsWith(prefix)) {
+                    match = day;
+                }
+            }
+            if (match == null) {
+                throw new IllegalArgumentException("Unknown weekday " + name);
+            }
+            weekdays.add(match);
         }
+        return weekdays;
+    }
+
+    private static void cancel(Session session, String[] tokens) {
         String appointmentID = tokens[1];
         String vaccineName = "";
         try {
-            if (currentCaregiver != null) {
-                vaccineName = currentCaregiver.cancelAppointment(appointmentID);
+            if (session.getCaregiver() != null) {
+                vaccineName = session.getCaregiver().cancelAppointment(appointmentID);
             } else {
-                vaccineName = currentPatient.cancelAppointment(appointmentID);
+                vaccineName = session.getPatient().cancelAppointment(appointmentID);
             }
             if (vaccineName.length() == 0) {
                 return;
             }
-            Vaccine vaccine = new Vaccine.VaccineGetter(vaccineName).get();
-            vaccine.increaseAvailableDoses(1);
+            VaccineInventory.getInstance().cancelled(vaccineName);
             System.out.println("Appointment canceled");
         } catch (SQLException e) {
             System.out.println("Error occurred when cancelling appointment");
@@ -443,20 +653,16 @@ public class Scheduler {
         }
     }
 
-    private static void addDoses(String[] tokens) {
+    private static void addDoses(Session session, String[] tokens) {
         // add_doses <vaccine> <number>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
+        String vaccineName = tokens[1];
+        int doses;
+        try {
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
             System.out.println("Please try again!");
             return;
         }
-        String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
         Vaccine vaccine = null;
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
@@ -464,7 +670,7 @@ public class Scheduler {
             System.out.println("Error occurred when adding doses");
             e.printStackTrace();
         }
-        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
+        // check 1: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
         //          table
         if (vaccine == null) {
             try {
@@ -486,16 +692,112 @@ public class Scheduler {
         System.out.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please log in to perform this operation!");
+    // takes doses out of stock, e.g. expired ones; waits for the vaccine's bookings in progress to commit first
+    private static void removeDoses(Session session, String[] tokens) {
+        // remove_doses <vaccine> <number>
+        String vaccineName = tokens[1];
+        int doses;
+        try {
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            System.out.println("Please try again!");
             return;
         }
         try {
-            if (currentCaregiver != null) {
-                currentCaregiver.showAppointment();
+            Vaccine vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+            if (vaccine == null) {
+                System.out.println("No such vaccine! Please re-enter the name!");
+                return;
+            }
+            vaccine.decreaseAvailableDoses(doses);
+            System.out.println("Doses updated!");
+        } catch (IllegalArgumentException e) {
+            // a count that is not positive, or more doses than are in stock
+            System.out.println(e.getMessage());
+        } catch (SQLException e) {
+            System.out.println("Error occurred when removing doses");
+            e.printStackTrace();
+        }
+    }
+
+    private static void importAccounts(Session session, String[] tokens) {
+        // import_accounts <csv> [chunk_size]
+        try {
+            int chunkSize = tokens.length == 3 ? Integer.parseInt(tokens[2]) : AccountImporter.DEFAULT_CHUNK_SIZE;
+            AccountImporter importer = new AccountImporter(tokens[1], chunkSize, PASSWORD_POLICY);
+            importer.run();
+            System.out.println("Imported " + importer.getImported() + " accounts, skipped "
+                    + importer.getDuplicates() + " existing usernames and " + importer.getRejected() + " bad lines");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Please enter a valid chunk size!");
+        } catch (IOException e) {
+            System.out.println("Error occurred when reading " + tokens[1]);
+            e.printStackTrace();
+        } catch (SQLException e) {
+            System.out.println("Error occurred when importing accounts, run the command again to resume");
+            e.printStackTrace();
+        }
+    }
+
+    private static void batchReserve(Session session, String[] tokens) {
+        // batch_reserve <csv> [chunk_size], with lines of the form patient,vaccine,from,to
+        List<BatchReservation.Request> requests = new ArrayList<BatchReservation.Request>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(tokens[1]), StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                String[] fields = line.split(",");
+                if (line.trim().isEmpty() || fields[0].trim().equalsIgnoreCase("patient")) {
+                    continue;
+                }
+                // only the number, so the output never echoes a file's contents
+                if (fields.length != 4) {
+                    System.out.println("Skipping malformed line " + number);
+                    continue;
+                }
+                requests.add(new BatchReservation.Request(fields[0].trim(), fields[1].trim(),
+                        Date.valueOf(fields[2].trim()), Date.valueOf(fields[3].trim())));
+            }
+        } catch (IOException e) {
+            System.out.println("Error occurred when reading " + tokens[1]);
+            e.printStackTrace();
+            return;
+        } catch (IllegalArgumentException e) {
+            System.out.println("Please enter valid dates in " + tokens[1] + "!");
+            return;
+        }
+        BatchReservation batch;
+        try {
+            int chunkSize = tokens.length == 3 ? Integer.parseInt(tokens[2]) : BatchReservation.DEFAULT_CHUNK_SIZE;
+            batch = new BatchReservation(requests, chunkSize);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Please enter a valid chunk size!");
+            return;
+        }
+        try {
+            batch.run();
+        } catch (SQLException e) {
+            System.out.println("Error occurred when reserving, the results below were committed");
+            e.printStackTrace();
+        }
+        for (Reservation reservation : batch.getReservations()) {
+            if (reservation != null && !reservation.isReserved()) {
+                System.out.println(reservation.getPatientName() + " " + reservation.getVaccineName() + " : "
+                        + reservation.getOutcome());
+            }
+        }
+        System.out.printf("Placed %d of %d requests (%.1f%% filled) in %d ms, %.0f appointments per second%n",
+                batch.getPlaced(), batch.getRequested(), batch.getFillRate() * 100,
+                TimeUnit.NANOSECONDS.toMillis(batch.getElapsedNanos()), batch.getThroughput());
+    }
+
+    private static void showAppointments(Session session, String[] tokens) {
+        try {
+            if (session.getCaregiver() != null) {
+                session.getCaregiver().showAppointment();
             } else {
-                currentPatient.showAppointment();
+                session.getPatient().showAppointment();
             }
             System.out.println("Above are your appointment");
         } catch (SQLException e) {
@@ -504,17 +806,59 @@ public class Scheduler {
         }
 
     }
-    private static void logout(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
+
+    // latency percentiles and failures of every command and database call since startup, then the gauges of the
+    // connection pool, its statement caches and the username filters; all of it is also available over JMX
+    private static void stats(Session session, String[] tokens) {
+        System.out.printf("%-32s %10s %8s %10s %10s %10s %10s%n", "operation", "count", "errors", "p50 ms",
+                "p90 ms", "p99 ms", "max ms");
+        for (OperationStats stats : Metrics.getInstance().getOperations()) {
+            if (stats.getCount() == 0) {
+                continue;
+            }
+            System.out.printf("%-32s %10d %8d %10.2f %10.2f %10.2f %10.2f%n", stats.getName(), stats.getCount(),
+                    stats.getErrorCount(), stats.getP50Millis(), stats.getP90Millis(), stats.getP99Millis(),
+                    stats.getMaxMillis());
+            if (stats.getLastError() != null) {
+                System.out.println("    last error: " + stats.getLastError());
+            }
+        }
+        ConnectionPool.PoolStats pool = ConnectionPool.getInstance().getStats();
+        System.out.printf("pool: %d active, %d idle of %d; %d borrows, wait %.2f ms average %.2f ms max, "
+                        + "%d timeouts; %d connections created, %d destroyed%n",
+                pool.getActive(), pool.getIdle(), pool.getMaxSize(), pool.getBorrowCount(),
+                pool.getAverageWaitNanos() / 1e6, pool.getMaxWaitNanos() / 1e6, pool.getTimeoutCount(),
+                pool.getCreatedCount(), pool.getDestroyedCount());
+        long lookups = pool.getStatementHits() + pool.getStatementMisses();
+        System.out.printf("statement cache: %d hits, %d misses (%.1f%% hits), %d evictions%n",
+                pool.getStatementHits(), pool.getStatementMisses(),
+                lookups == 0 ? 0 : 100.0 * pool.getStatementHits() / lookups, pool.getStatementEvictions());
+        UsernameRegistry usernames = UsernameRegistry.getInstance();
+        System.out.printf("usernames: %d checks answered by the filters, %d queried, %d false positives; "
+                        + "fpp expected %.4f (patients) %.4f (caregivers), observed %.4f%n",
+                usernames.getFilteredCount(), usernames.getQueriedCount(), usernames.getFalsePositiveCount(),
+                usernames.getPatientExpectedFpp(), usernames.getCaregiverExpectedFpp(), usernames.getObservedFpp());
+    }
+
+    private static void logout(Session session, String[] tokens) {
+        if (!session.isLoggedIn()) {
             System.out.println("Already logged-out!");
             return;
         }
-        if (currentCaregiver != null) {
-            currentCaregiver = null;
+        if (session.getToken() != null) {
+            SessionStore.getInstance().revoke(session.getToken());
+            session.setToken(null);
+        }
+        if (session.getCaregiver() != null) {
+            session.setCaregiver(null);
             System.out.println("Caregiver logged out");
         } else {
-            currentPatient = null;
+            session.setPatient(null);
             System.out.println("Patient logged out");
         }
     }
+
+    private static void quit(Session session, String[] tokens) {
+        System.out.println("Bye!");
+    }
 }
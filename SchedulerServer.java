@@ -0,0 +1,73 @@
+package scheduler;
+
+import scheduler.db.AsyncExecutor;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the scheduler's line protocol to many concurrent clients over TCP on localhost. Each connection gets
+ * its own Session and runs the same command loop as the terminal, on a virtual thread when the JVM supports
+ * them and on a pooled platform thread otherwise. Commands that read files on the server, import_accounts and
+ * batch_reserve, are only run from the terminal.
+ */
+public class SchedulerServer {
+    private final int port;
+    private final SessionOutput output;
+    private final ExecutorService executor;
+
+    public SchedulerServer(int port) {
+        this.port = port;
+        this.output = new SessionOutput(System.out);
+        this.executor = newSessionExecutor();
+        AsyncExecutor.getInstance().setTaskDecorator(output::propagate);
+    }
+
+    public void serve() throws IOException {
+        System.setOut(output);
+        try (ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            System.out.println("Scheduler server listening on " + serverSocket.getLocalSocketAddress());
+            while (true) {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> handle(socket));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            // each session prints through its own stream, so only its own client's socket can block it
+            PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()), true,
+                    StandardCharsets.UTF_8);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            output.bind(out);
+            Scheduler.printGreeting();
+            Scheduler.runSession(new Session(true), in);
+            System.out.flush();
+        } catch (IOException e) {
+            System.err.println("Session ended with error: " + e.getMessage());
+        } finally {
+            output.unbind();
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is only available from Java 21, so look it up reflectively
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Brings an existing database up to the schema in create.sql. Applied versions are recorded in the SchemaVersion
+ * table. A database without that table was created from the original create.sql and counts as version 1. Each
+ * migration runs in its own transaction.
+ *
+ * To change the schema, append a migration here and update create.sql, including its SchemaVersion row, to match.
+ */
+public class SchemaMigrator {
+    private static final List<Migration> MIGRATIONS = new ArrayList<Migration>();
+
+    static {
+        MIGRATIONS.add(new Migration(2, "vaccine booking checkpoints",
+                "IF OBJECT_ID('VaccineBookings') IS NULL CREATE TABLE VaccineBookings ("
+                        + "Name varchar(255) REFERENCES Vaccines, Booked int, PRIMARY KEY (Name))"));
+        MIGRATIONS.add(new Migration(3, "indexes for appointment and availability lookups",
+                "CREATE INDEX IX_Appointments_CaregiverName_Date ON Appointments (CaregiverName, Date) "
+                        + "INCLUDE (PatientName, VaccineName, AppointmentID)",
+                "CREATE INDEX IX_Appointments_PatientName_Date ON Appointments (PatientName, Date) "
+                        + "INCLUDE (CaregiverName, VaccineName, AppointmentID)",
+                "CREATE INDEX IX_Appointments_VaccineName ON Appointments (VaccineName)",
+                "CREATE INDEX IX_Availabilities_Username_Time ON Availabilities (Username, Time)"));
+        // withdrawn: it added integer ids that no key or query used; the version is kept so later ones keep theirs
+        MIGRATIONS.add(new Migration(4, "surrogate integer ids (withdrawn)"));
+        MIGRATIONS.add(new Migration(5, "index for weekly caregiver load",
+                "CREATE INDEX IX_Appointments_Date ON Appointments (Date) INCLUDE (CaregiverName)"));
+        MIGRATIONS.add(new Migration(6, "appointment slots with capacity",
+                "ALTER TABLE Availabilities ADD "
+                        + "Slot time(0) NOT NULL CONSTRAINT DF_Availabilities_Slot DEFAULT '00:00', "
+                        + "Capacity int NOT NULL CONSTRAINT DF_Availabilities_Capacity DEFAULT 1",
+                // the original primary key was created without a name
+                "DECLARE @pk sysname = (SELECT name FROM sys.key_constraints "
+                        + "WHERE parent_object_id = OBJECT_ID('Availabilities') AND type = 'PK'); "
+                        + "EXEC('ALTER TABLE Availabilities DROP CONSTRAINT ' + @pk)",
+                "ALTER TABLE Availabilities ADD CONSTRAINT PK_Availabilities PRIMARY KEY (Time, Slot, Username)",
+                "ALTER TABLE Appointments ADD Slot time(0) NOT NULL CONSTRAINT DF_Appointments_Slot DEFAULT '00:00'"));
+        // room for the self-describing hashes of PasswordHasher; existing 16-byte hashes keep their bytes
+        MIGRATIONS.add(new Migration(7, "variable-length password hashes",
+                "ALTER TABLE Caregivers ALTER COLUMN Hash VARBINARY(256)",
+                "ALTER TABLE Patients ALTER COLUMN Hash VARBINARY(256)"));
+        // undoes the withdrawn migration 4 on databases that applied it
+        MIGRATIONS.add(new Migration(8, "drop unused integer ids",
+                dropId("Caregivers"), dropId("Patients"), dropId("Vaccines")));
+    }
+
+    private SchemaMigrator() {
+    }
+
+    private static String dropId(String table) {
+        return "IF COL_LENGTH('" + table + "', 'Id') IS NOT NULL "
+                + "EXEC('DROP INDEX UX_" + table + "_Id ON " + table + "; ALTER TABLE " + table + " DROP COLUMN Id')";
+    }
+
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    // applies every pending migration in order and returns the resulting schema version
+    public static int migrate() throws SQLException {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+        try {
+            int current = currentVersion(con);
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version > current) {
+                    apply(con, migration);
+                    current = migration.version;
+                }
+            }
+            return current;
+        } finally {
+            pool.returnConnection(con);
+        }
+    }
+
+    private static int currentVersion(Connection con) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            statement.executeUpdate("IF OBJECT_ID('SchemaVersion') IS NULL BEGIN "
+                    + "CREATE TABLE SchemaVersion (Version int, Description varchar(255), AppliedAt datetime2, "
+                    + "PRIMARY KEY (Version)); "
+                    + "INSERT INTO SchemaVersion VALUES (1, 'create.sql baseline', SYSDATETIME()); END");
+            try (ResultSet resultSet = statement.executeQuery("SELECT MAX(Version) FROM SchemaVersion")) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
+    }
+
+    private static void apply(Connection con, Migration migration) throws SQLException {
+        String recordVersion = "INSERT INTO SchemaVersion VALUES (?, ?, SYSDATETIME())";
+        con.setAutoCommit(false);
+        try (Statement statement = con.createStatement();
+             PreparedStatement record = con.prepareStatement(recordVersion)) {
+            for (String sql : migration.statements) {
+                statement.executeUpdate(sql);
+            }
+            record.setInt(1, migration.version);
+            record.setString(2, migration.description);
+            record.executeUpdate();
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException("Schema migration " + migration.version + " (" + migration.description
+                    + ") failed", e);
+        } finally {
+            con.setAutoCommit(true);
+        }
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final List<String> statements;
+
+        private Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = Arrays.asList(statements);
+        }
+    }
+}
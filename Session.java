@@ -0,0 +1,56 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+// The state of one connected user, whether on the terminal or over the network
+// Note: it is always true that at most one of caregiver and patient is not null
+//       since only one user can be logged-in per session at a time
+public class Session {
+    // whether the user is connected over the network rather than at the server's terminal
+    private final boolean remote;
+    private Caregiver caregiver = null;
+    private Patient patient = null;
+    // the SessionStore token of the logged-in user, if one was issued
+    private String token = null;
+
+    public Session() {
+        this(false);
+    }
+
+    public Session(boolean remote) {
+        this.remote = remote;
+    }
+
+    public boolean isRemote() {
+        return remote;
+    }
+
+    public Caregiver getCaregiver() {
+        return caregiver;
+    }
+
+    public void setCaregiver(Caregiver caregiver) {
+        this.caregiver = caregiver;
+    }
+
+    public Patient getPatient() {
+        return patient;
+    }
+
+    public void setPatient(Patient patient) {
+        this.patient = patient;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public boolean isLoggedIn() {
+        return caregiver != null || patient != null;
+    }
+}
@@ -0,0 +1,219 @@
+package scheduler;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Routes System.out to the stream of the session served by the current thread, so that command handlers and
+ * model classes which print their results reach the right network client. Threads without a bound session
+ * write to the original standard output.
+ *
+ * Every call is handed whole to the session's own PrintStream, which takes its own lock and flushes to its own
+ * socket, so a slow client only ever holds up its own session. This stream never locks or buffers anything.
+ */
+public class SessionOutput extends PrintStream {
+    private final PrintStream fallback;
+    private final ThreadLocal<PrintStream> current = new ThreadLocal<PrintStream>();
+
+    public SessionOutput(PrintStream fallback) {
+        super(fallback);
+        this.fallback = fallback;
+    }
+
+    public void bind(PrintStream out) {
+        current.set(out);
+    }
+
+    public void unbind() {
+        current.remove();
+    }
+
+    // returns a task that prints to the calling thread's session when it runs on another thread
+    public Runnable propagate(Runnable task) {
+        PrintStream out = current.get();
+        if (out == null) {
+            return task;
+        }
+        return () -> {
+            PrintStream previous = current.get();
+            current.set(out);
+            try {
+                task.run();
+            } finally {
+                if (previous == null) {
+                    current.remove();
+                } else {
+                    current.set(previous);
+                }
+            }
+        };
+    }
+
+    private PrintStream target() {
+        PrintStream out = current.get();
+        return out == null ? fallback : out;
+    }
+
+    @Override
+    public void write(int b) {
+        target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        target().write(b, off, len);
+    }
+
+    @Override
+    public void flush() {
+        target().flush();
+    }
+
+    // the session's stream is closed with its socket, and standard output stays open
+    @Override
+    public void close() {
+        target().flush();
+    }
+
+    @Override
+    public boolean checkError() {
+        return target().checkError();
+    }
+
+    @Override
+    public void print(boolean b) {
+        target().print(b);
+    }
+
+    @Override
+    public void print(char c) {
+        target().print(c);
+    }
+
+    @Override
+    public void print(int i) {
+        target().print(i);
+    }
+
+    @Override
+    public void print(long l) {
+        target().print(l);
+    }
+
+    @Override
+    public void print(float f) {
+        target().print(f);
+    }
+
+    @Override
+    public void print(double d) {
+        target().print(d);
+    }
+
+    @Override
+    public void print(char[] s) {
+        target().print(s);
+    }
+
+    @Override
+    public void print(String s) {
+        target().print(s);
+    }
+
+    @Override
+    public void print(Object obj) {
+        target().print(obj);
+    }
+
+    @Override
+    public void println() {
+        target().println();
+    }
+
+    @Override
+    public void println(boolean x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(char x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(int x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(long x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(float x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(double x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(char[] x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(String x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(Object x) {
+        target().println(x);
+    }
+
+    @Override
+    public PrintStream printf(String format, Object... args) {
+        target().printf(format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream printf(Locale l, String format, Object... args) {
+        target().printf(l, format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream format(String format, Object... args) {
+        target().format(format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream format(Locale l, String format, Object... args) {
+        target().format(l, format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq) {
+        target().append(csq);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq, int start, int end) {
+        target().append(csq, start, end);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(char c) {
+        target().append(c);
+        return this;
+    }
+}
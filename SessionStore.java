@@ -0,0 +1,240 @@
+package scheduler;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The session tokens handed out at login, so that a client can resume its session with the resume command
+ * instead of logging in again. Lookups are a hash map access.
+ *
+ * Every session takes one fixed-size record, so the store's memory is capped at scheduler.session.maxBytes
+ * (default 8 MiB). When it is full, the least recently used session is dropped. A session expires
+ * scheduler.session.ttlMinutes (default 30) after it was issued.
+ *
+ * If scheduler.session.file is set, the records are also kept in that file through a memory mapping, so the
+ * sessions of a restarted server remain valid. Writes reach the file through the OS page cache. They survive a
+ * crash of the process but not of the machine.
+ */
+public class SessionStore {
+    private static final SessionStore INSTANCE = create();
+
+    // a record: state (0 free, 1 patient, 2 caregiver), expiry millis, token bytes, username length and bytes
+    private static final int TOKEN_BYTES = 32;
+    private static final int MAX_USERNAME_BYTES = 255;
+    private static final int RECORD_BYTES = 304;
+    private static final int EXPIRES = 1;
+    private static final int TOKEN = EXPIRES + Long.BYTES;
+    private static final int USERNAME = TOKEN + TOKEN_BYTES + 1;
+
+    public enum Role {
+        PATIENT,
+        CAREGIVER
+    }
+
+    // the user a token was issued to
+    public static class Entry {
+        private final Role role;
+        private final String username;
+        private final long expiresAt;
+        private final int slot;
+
+        private Entry(Role role, String username, long expiresAt, int slot) {
+            this.role = role;
+            this.username = username;
+            this.expiresAt = expiresAt;
+            this.slot = slot;
+        }
+
+        public Role getRole() {
+            return role;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+
+    private final long ttlMillis;
+    private final int capacity;
+    // in access order, so the eldest entry is the least recently used session
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final Deque<Integer> freeSlots = new ArrayDeque<Integer>();
+    private final SecureRandom random = new SecureRandom();
+    private final MappedByteBuffer file;
+
+    public static SessionStore getInstance() {
+        return INSTANCE;
+    }
+
+    private static SessionStore create() {
+        long ttlMillis = Long.getLong("scheduler.session.ttlMinutes", 30L) * 60_000L;
+        long maxBytes = Long.getLong("scheduler.session.maxBytes", 8L << 20);
+        String path = System.getProperty("scheduler.session.file");
+        if (path != null) {
+            try {
+                return new SessionStore(ttlMillis, maxBytes, Paths.get(path));
+            } catch (IOException e) {
+                System.err.println("Could not open the session file " + path + ", keeping sessions in memory");
+                e.printStackTrace();
+            }
+        }
+        return new SessionStore(ttlMillis, maxBytes);
+    }
+
+    // a store kept in memory only
+    public SessionStore(long ttlMillis, long maxBytes) {
+        this.ttlMillis = ttlMillis;
+        this.capacity = capacityOf(ttlMillis, maxBytes);
+        this.file = null;
+        for (int slot = 0; slot < capacity; slot++) {
+            freeSlots.add(slot);
+        }
+    }
+
+    // a store backed by a file, taking over the sessions already in it
+    public SessionStore(long ttlMillis, long maxBytes, Path path) throws IOException {
+        this.ttlMillis = ttlMillis;
+        this.capacity = capacityOf(ttlMillis, maxBytes);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            this.file = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_BYTES);
+        }
+        load();
+    }
+
+    private static int capacityOf(long ttlMillis, long maxBytes) {
+        // record offsets are ints
+        if (ttlMillis <= 0 || maxBytes < RECORD_BYTES || maxBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid session store: ttl " + ttlMillis + " ms, " + maxBytes
+                    + " bytes");
+        }
+        return (int) (maxBytes / RECORD_BYTES);
+    }
+
+    // brings back the unexpired sessions of the file, the soonest to expire being the first to be evicted
+    private void load() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Entry>> live = new ArrayList<Map.Entry<String, Entry>>();
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = slot * RECORD_BYTES;
+            byte state = file.get(offset);
+            long expiresAt = file.getLong(offset + EXPIRES);
+            if (state == 0 || state > Role.values().length || expiresAt <= now) {
+                release(slot);
+                continue;
+            }
+            byte[] token = new byte[TOKEN_BYTES];
+            file.get(offset + TOKEN, token);
+            byte[] username = new byte[file.get(offset + USERNAME - 1) & 0xff];
+            file.get(offset + USERNAME, username);
+            Entry entry = new Entry(Role.values()[state - 1], new String(username, StandardCharsets.UTF_8),
+                    expiresAt, slot);
+            live.add(new AbstractMap.SimpleEntry<String, Entry>(encode(token), entry));
+        }
+        live.sort(Comparator.comparingLong(session -> session.getValue().expiresAt));
+        for (Map.Entry<String, Entry> session : live) {
+            entries.put(session.getKey(), session.getValue());
+        }
+    }
+
+    // issues a new token for a user who just logged in
+    public synchronized String issue(Role role, String username) {
+        byte[] token = new byte[TOKEN_BYTES];
+        random.nextBytes(token);
+        String encoded = encode(token);
+        if (freeSlots.isEmpty()) {
+            // full: the least recently used session gives up its record
+            Map.Entry<String, Entry> eldest = entries.entrySet().iterator().next();
+            entries.remove(eldest.getKey());
+            release(eldest.getValue().slot);
+        }
+        int slot = freeSlots.poll();
+        Entry entry = new Entry(role, username, System.currentTimeMillis() + ttlMillis, slot);
+        entries.put(encoded, entry);
+        write(entry, token);
+        return encoded;
+    }
+
+    // the live session of a token, or null if it is unknown or expired
+    public synchronized Entry lookup(String token) {
+        Entry entry = entries.get(token);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(token);
+            release(entry.slot);
+            return null;
+        }
+        return entry;
+    }
+
+    // ends a session, e.g. on logout
+    public synchronized void revoke(String token) {
+        Entry entry = entries.remove(token);
+        if (entry != null) {
+            release(entry.slot);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // writes the file's pages out, e.g. before a planned shutdown
+    public synchronized void flush() {
+        if (file != null) {
+            file.force();
+        }
+    }
+
+    private void write(Entry entry, byte[] token) {
+        if (file == null) {
+            return;
+        }
+        byte[] username = entry.username.getBytes(StandardCharsets.UTF_8);
+        int offset = entry.slot * RECORD_BYTES;
+        if (username.length > MAX_USERNAME_BYTES) {
+            // too long to persist; the session only lives in memory
+            file.put(offset, (byte) 0);
+            return;
+        }
+        file.putLong(offset + EXPIRES, entry.expiresAt);
+        file.put(offset + TOKEN, token);
+        file.put(offset + USERNAME - 1, (byte) username.length);
+        file.put(offset + USERNAME, username);
+        // the state byte goes last, so a torn write leaves a free record rather than a garbled session
+        file.put(offset, (byte) (entry.role.ordinal() + 1));
+    }
+
+    private void release(int slot) {
+        if (file != null) {
+            file.put(slot * RECORD_BYTES, (byte) 0);
+        }
+        freeSlots.add(slot);
+    }
+
+    private static String encode(byte[] token) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+}
@@ -0,0 +1,80 @@
+package scheduler.model;
+
+import java.sql.Time;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The appointment slots a caregiver offers on each day they upload. Configured with system properties:
+ * scheduler.slot.minutes (slot length, default 1440, i.e. one slot per day), scheduler.slot.firstHour and
+ * scheduler.slot.lastHour (the bookable part of the day, default 0 to 24) and scheduler.slot.capacity (how many
+ * patients one caregiver can see per slot, default 1). The defaults give the original one appointment per
+ * caregiver per day.
+ */
+public class SlotSchedule {
+    private static final SlotSchedule INSTANCE = new SlotSchedule(
+            Integer.getInteger("scheduler.slot.minutes", 1440),
+            Integer.getInteger("scheduler.slot.firstHour", 0),
+            Integer.getInteger("scheduler.slot.lastHour", 24),
+            Integer.getInteger("scheduler.slot.capacity", 1));
+
+    // every slot of a day starts at or after midnight, so this bound covers all of them
+    public static final Time FIRST = Time.valueOf(LocalTime.MIDNIGHT);
+    public static final Time LAST = Time.valueOf(LocalTime.of(23, 59, 59));
+
+    private final int minutes;
+    private final int capacity;
+    private final List<Time> starts;
+
+    public static SlotSchedule getInstance() {
+        return INSTANCE;
+    }
+
+    public SlotSchedule(int minutes, int firstHour, int lastHour, int capacity) {
+        if (minutes <= 0 || firstHour < 0 || lastHour > 24 || firstHour * 60 + minutes > lastHour * 60
+                || capacity <= 0) {
+            throw new IllegalArgumentException("Invalid slot schedule: " + minutes + " minutes from " + firstHour
+                    + " to " + lastHour + " with capacity " + capacity);
+        }
+        this.minutes = minutes;
+        this.capacity = capacity;
+        List<Time> starts = new ArrayList<Time>();
+        for (int start = firstHour * 60; start + minutes <= lastHour * 60; start += minutes) {
+            starts.add(Time.valueOf(LocalTime.of(start / 60, start % 60)));
+        }
+        this.starts = Collections.unmodifiableList(starts);
+    }
+
+    public int getMinutes() {
+        return minutes;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // the start times of a day's slots, in order
+    public List<Time> getStarts() {
+        return starts;
+    }
+
+    // true when each day is a single slot, as before slots existed
+    public boolean isDaily() {
+        return starts.size() == 1;
+    }
+
+    // parses a slot start such as 09:30 and checks that it is one of the configured slots
+    public Time parse(String slot) {
+        Time time = Time.valueOf(LocalTime.parse(slot));
+        if (!starts.contains(time)) {
+            throw new IllegalArgumentException("No slot starts at " + slot);
+        }
+        return time;
+    }
+
+    public static String format(Time slot) {
+        return slot.toLocalTime().toString();
+    }
+}
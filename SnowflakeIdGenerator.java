@@ -0,0 +1,58 @@
+package scheduler.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-ordered 64-bit ids: 41 bits of milliseconds since 2021-01-01 UTC, a 10-bit node id and a 12-bit
+ * per-millisecond sequence. Ids are rendered as 13 fixed-width Crockford base32 characters, so their string
+ * order matches their numeric order.
+ *
+ * Generation is lock-free. When more than 4096 ids are requested within one millisecond, or the clock moves
+ * backwards, the generator borrows from the following millisecond instead of waiting or repeating an id.
+ */
+public class SnowflakeIdGenerator implements AppointmentIdGenerator {
+    private static final long EPOCH_MILLIS = 1609459200000L;
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final int ID_LENGTH = 13;
+
+    private final long node;
+    // the last issued (timestamp << SEQUENCE_BITS | sequence)
+    private final AtomicLong last = new AtomicLong();
+
+    public SnowflakeIdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID);
+        }
+        this.node = nodeId;
+    }
+
+    public long nextLong() {
+        while (true) {
+            long previous = last.get();
+            long candidate = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+            if (candidate <= previous) {
+                candidate = previous + 1;
+            }
+            if (last.compareAndSet(previous, candidate)) {
+                long timestamp = candidate >>> SEQUENCE_BITS;
+                long sequence = candidate & ((1L << SEQUENCE_BITS) - 1);
+                return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence;
+            }
+        }
+    }
+
+    @Override
+    public String nextId() {
+        long id = nextLong();
+        char[] chars = new char[ID_LENGTH];
+        for (int i = ID_LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,144 @@
+package scheduler.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The prepared statements of one pooled connection, kept in LRU order up to a fixed capacity.
+ *
+ * Callers get a handle whose close() hands the statement back to the cache with its parameters cleared, so
+ * the usual try-with-resources block releases it deterministically. A statement that is requested again while
+ * its handle is still open is prepared uncached and really closed afterwards, and a statement evicted while in
+ * use is closed when its handle is released. Only the thread that borrowed the connection uses its cache.
+ * The handle also feeds each call to the statement's {@link StatementTracer.Trace}, so a statement is wrapped
+ * once for both and cached ones stay traced across uses.
+ */
+class StatementCache {
+    private final Connection con;
+    private final int capacity;
+    private final ConnectionPool pool;
+    private final LinkedHashMap<Query, Entry> entries;
+
+    StatementCache(Connection con, int capacity, ConnectionPool pool) {
+        this.con = con;
+        this.capacity = capacity;
+        this.pool = pool;
+        this.entries = new LinkedHashMap<Query, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Query, Entry> eldest) {
+                if (size() <= StatementCache.this.capacity) {
+                    return false;
+                }
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+    }
+
+    PreparedStatement prepare(Query query) throws SQLException {
+        Entry entry = entries.get(query);
+        if (entry != null && !entry.inUse) {
+            pool.recordStatementHit();
+            entry.inUse = true;
+            return entry.handle;
+        }
+        pool.recordStatementMiss();
+        PreparedStatement statement = con.prepareStatement(query.getSql());
+        boolean cached = entry == null && capacity > 0;
+        entry = new Entry(query, statement);
+        entry.inUse = true;
+        if (cached) {
+            entries.put(query, entry);
+        } else {
+            // the cached copy is busy, or caching is off: this one is closed for real when released
+            entry.evicted = true;
+        }
+        return entry.handle;
+    }
+
+    void closeAll() {
+        for (Entry entry : entries.values()) {
+            entry.close();
+        }
+        entries.clear();
+    }
+
+    private class Entry implements InvocationHandler {
+        private final Query query;
+        private final PreparedStatement statement;
+        private final PreparedStatement handle;
+        private final StatementTracer.Trace trace;
+        private boolean inUse = false;
+        private boolean evicted = false;
+
+        private Entry(Query query, PreparedStatement statement) {
+            this.query = query;
+            this.statement = statement;
+            this.trace = StatementTracer.getInstance().trace(query);
+            this.handle = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                release();
+                return null;
+            } else if (name.equals("isClosed")) {
+                return !inUse || statement.isClosed();
+            } else if (trace != null) {
+                return trace.invoke(statement, method, args);
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void release() {
+            if (!inUse) {
+                return;
+            }
+            inUse = false;
+            if (trace != null) {
+                trace.release();
+            }
+            if (evicted) {
+                close();
+                return;
+            }
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException e) {
+                entries.remove(query);
+                close();
+            }
+        }
+
+        private void evict() {
+            pool.recordStatementEviction();
+            evicted = true;
+            if (!inUse) {
+                close();
+            }
+        }
+
+        private void close() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // the connection is being discarded or the statement is already gone
+            }
+        }
+    }
+}
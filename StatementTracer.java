@@ -0,0 +1,316 @@
+package scheduler.db;
+
+import scheduler.util.Metrics;
+import scheduler.util.OperationStats;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Traces every prepared statement the pool hands out. Updates and batches are timed around the execute call. A
+ * query is timed until the next call on its statement or the statement's release, so the time to fetch the rows
+ * counts; only a query whose execute call alone reaches the threshold gets its result set wrapped, to count the
+ * rows and end at close, so fast queries cost no extra proxy. Executions are recorded as the operation
+ * "sql.&lt;QUERY&gt;" in {@link Metrics}. The trace keeps the shapes of the bound parameters (their types, and the
+ * lengths of strings and byte arrays) but never their values, so it is safe to log.
+ *
+ * An execution that takes scheduler.trace.slowMillis (default 250) or longer is written as one JSON line to
+ * the slow-query log, the file scheduler.trace.slowLog or else standard error; rows is null for a query whose
+ * result set was not wrapped. Only a scheduler.trace.sampleRate share (default 1.0) of the slow executions is
+ * written, so the log can stay on under load; every line carries the rate, so counts can be scaled back up.
+ * scheduler.trace.enabled=false turns tracing off.
+ */
+class StatementTracer {
+    private static final StatementTracer INSTANCE = create();
+
+    private static final int INITIAL_PARAMETERS = 8;
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final boolean enabled;
+    private final long slowNanos;
+    private final double sampleRate;
+    private final PrintStream slowLog;
+
+    static StatementTracer getInstance() {
+        return INSTANCE;
+    }
+
+    private static StatementTracer create() {
+        boolean enabled = Boolean.parseBoolean(System.getProperty("scheduler.trace.enabled", "true"));
+        long slowMillis = Long.getLong("scheduler.trace.slowMillis", 250L);
+        double sampleRate = Double.parseDouble(System.getProperty("scheduler.trace.sampleRate", "1.0"));
+        PrintStream slowLog = System.err;
+        String path = System.getProperty("scheduler.trace.slowLog");
+        if (path != null) {
+            try {
+                slowLog = new PrintStream(new FileOutputStream(path, true), true, "UTF-8");
+            } catch (IOException e) {
+                System.err.println("Could not open the slow-query log " + path + ", logging to standard error");
+                e.printStackTrace();
+            }
+        }
+        return new StatementTracer(enabled, slowMillis, sampleRate, slowLog);
+    }
+
+    StatementTracer(boolean enabled, long slowMillis, double sampleRate, PrintStream slowLog) {
+        if (slowMillis < 0 || sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("Invalid statement tracer: threshold " + slowMillis
+                    + " ms, sample rate " + sampleRate);
+        }
+        this.enabled = enabled;
+        this.slowNanos = slowMillis * 1_000_000L;
+        this.sampleRate = sampleRate;
+        this.slowLog = slowLog;
+    }
+
+    // the trace of one prepared statement, used by the thread that borrowed its connection; null if tracing is off
+    Trace trace(Query query) {
+        return enabled ? new Trace(query) : null;
+    }
+
+    private void finished(Trace traced, long elapsedNanos, SQLException error) {
+        if (elapsedNanos < slowNanos) {
+            return;
+        }
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(256);
+        line.append("{\"time\":\"").append(Instant.now())
+                .append("\",\"thread\":");
+        quote(line, Thread.currentThread().getName());
+        line.append(",\"query\":\"").append(traced.query.name())
+                .append("\",\"sql\":");
+        quote(line, traced.query.getSql());
+        line.append(",\"params\":[");
+        for (int i = 0; i < traced.bound; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            traced.appendShape(line, i);
+        }
+        line.append("],\"batch\":").append(traced.batched)
+                .append(",\"rows\":").append(traced.rows < 0 ? "null" : String.valueOf(traced.rows))
+                .append(",\"millis\":").append(elapsedNanos / NANOS_PER_MILLI)
+                .append(",\"sampleRate\":").append(sampleRate)
+                .append(",\"error\":");
+        if (error == null) {
+            line.append("null");
+        } else {
+            quote(line, error.toString());
+        }
+        line.append('}');
+        slowLog.println(line);
+    }
+
+    private static void quote(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < ' ') {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    private static Object forward(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    // the bound parameters of one prepared statement and the execution in progress on it
+    class Trace {
+        private final Query query;
+        private final OperationStats stats;
+
+        // the setter used for each bound parameter, e.g. setString, and the length of strings and byte arrays
+        private String[] setters = new String[INITIAL_PARAMETERS];
+        private int[] lengths = new int[INITIAL_PARAMETERS];
+        private int bound;
+        private int batched;
+
+        private boolean running;
+        // a query whose result set is not wrapped, which ends at the next call on the statement
+        private boolean fetching;
+        private long start;
+        // -1 while the rows of a query are not counted
+        private long rows;
+
+        private Trace(Query query) {
+            this.query = query;
+            this.stats = Metrics.getInstance().operation("sql." + query.name());
+        }
+
+        // performs one call on the statement, recording what it binds and executes
+        Object invoke(PreparedStatement statement, Method method, Object[] args) throws Throwable {
+            if (fetching) {
+                end(null);
+            }
+            String name = method.getName();
+            if (args != null && args.length >= 2 && args[0] instanceof Integer && name.startsWith("set")) {
+                bind(name, (Integer) args[0], args[1]);
+            } else if (name.equals("addBatch")) {
+                batched++;
+            } else if (name.equals("executeQuery")) {
+                begin();
+                ResultSet results = (ResultSet) execute(statement, method, args);
+                if (System.nanoTime() - start < slowNanos) {
+                    rows = -1;
+                    fetching = true;
+                    return results;
+                }
+                return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                        new Rows(results));
+            } else if (name.equals("executeUpdate") || name.equals("executeLargeUpdate")) {
+                begin();
+                Object count = execute(statement, method, args);
+                rows = ((Number) count).longValue();
+                end(null);
+                return count;
+            } else if (name.equals("executeBatch") || name.equals("executeLargeBatch")) {
+                begin();
+                Object counts = execute(statement, method, args);
+                // int[] or long[]; negative entries are SUCCESS_NO_INFO or EXECUTE_FAILED
+                for (int i = 0; i < Array.getLength(counts); i++) {
+                    rows += Math.max(0, ((Number) Array.get(counts, i)).longValue());
+                }
+                end(null);
+                batched = 0;
+                return counts;
+            } else if (name.equals("execute")) {
+                begin();
+                boolean hasResults = (Boolean) execute(statement, method, args);
+                rows = hasResults ? 0 : Math.max(0, statement.getUpdateCount());
+                end(null);
+                return hasResults;
+            } else if (name.equals("clearParameters")) {
+                reset();
+            } else if (name.equals("clearBatch")) {
+                batched = 0;
+            }
+            return forward(statement, method, args);
+        }
+
+        // the statement goes back to the cache or away, so whatever ran on it is over
+        void release() {
+            reset();
+            batched = 0;
+        }
+
+        private void reset() {
+            end(null);
+            Arrays.fill(setters, 0, bound, null);
+            bound = 0;
+        }
+
+        private void bind(String setter, int index, Object value) {
+            if (index < 1) {
+                return;
+            }
+            if (index > setters.length) {
+                setters = Arrays.copyOf(setters, Math.max(index, 2 * setters.length));
+                lengths = Arrays.copyOf(lengths, setters.length);
+            }
+            setters[index - 1] = setter;
+            if (value instanceof String) {
+                lengths[index - 1] = ((String) value).length();
+            } else if (value instanceof byte[]) {
+                lengths[index - 1] = ((byte[]) value).length;
+            } else {
+                lengths[index - 1] = -1;
+            }
+            bound = Math.max(bound, index);
+        }
+
+        // e.g. "String(12)" for setString with a 12-character value, "Int" for setInt, "?" for an unbound one
+        private void appendShape(StringBuilder line, int i) {
+            line.append('"');
+            if (setters[i] == null) {
+                line.append('?');
+            } else {
+                line.append(setters[i], 3, setters[i].length());
+                if (lengths[i] >= 0) {
+                    line.append('(').append(lengths[i]).append(')');
+                }
+            }
+            line.append('"');
+        }
+
+        private void begin() {
+            end(null);
+            running = true;
+            rows = 0;
+            start = System.nanoTime();
+        }
+
+        private Object execute(PreparedStatement statement, Method method, Object[] args) throws Throwable {
+            try {
+                return forward(statement, method, args);
+            } catch (SQLException e) {
+                end(e);
+                throw e;
+            }
+        }
+
+        private void end(SQLException error) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            fetching = false;
+            long elapsed = System.nanoTime() - start;
+            if (error != null) {
+                stats.failed(error);
+            }
+            stats.record(elapsed);
+            finished(this, elapsed, error);
+        }
+
+        // the result set of a slow query, which counts its rows and ends the execution when closed
+        private class Rows implements InvocationHandler {
+            private final ResultSet results;
+
+            private Rows(ResultSet results) {
+                this.results = results;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                Object result;
+                try {
+                    result = forward(results, method, args);
+                } catch (SQLException e) {
+                    end(e);
+                    throw e;
+                }
+                if (name.equals("next") && (Boolean) result) {
+                    rows++;
+                } else if (name.equals("close")) {
+                    end(null);
+                }
+                return result;
+            }
+        }
+    }
+}
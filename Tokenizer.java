@@ -0,0 +1,60 @@
+package scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a command line into tokens without going through the regex engine. Runs of whitespace separate
+ * tokens, and single or double quotes group characters, including whitespace, into one token. An unterminated
+ * quote extends to the end of the line.
+ */
+public class Tokenizer {
+    private static final String[] EMPTY = new String[0];
+
+    private Tokenizer() {
+    }
+
+    public static String[] tokenize(String line) {
+        int length = line.length();
+        List<String> tokens = null;
+        StringBuilder quoted = null;
+        int i = 0;
+        while (i < length) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            if (tokens == null) {
+                tokens = new ArrayList<String>(4);
+            }
+            int start = i;
+            boolean hasQuote = false;
+            // scan to the end of the token; plain tokens are taken with one substring, quoted ones are assembled
+            while (i < length && !Character.isWhitespace(line.charAt(i))) {
+                c = line.charAt(i);
+                if (c == '"' || c == '\'') {
+                    if (!hasQuote) {
+                        hasQuote = true;
+                        if (quoted == null) {
+                            quoted = new StringBuilder();
+                        }
+                        quoted.setLength(0);
+                        quoted.append(line, start, i);
+                    }
+                    int close = line.indexOf(c, i + 1);
+                    int end = close < 0 ? length : close;
+                    quoted.append(line, i + 1, end);
+                    i = close < 0 ? length : close + 1;
+                } else {
+                    if (hasQuote) {
+                        quoted.append(c);
+                    }
+                    i++;
+                }
+            }
+            tokens.add(hasQuote ? quoted.toString() : line.substring(start, i));
+        }
+        return tokens == null ? EMPTY : tokens.toArray(new String[tokens.size()]);
+    }
+}
@@ -0,0 +1,174 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionPool;
+import scheduler.db.Query;
+import scheduler.util.BloomFilter;
+import scheduler.util.Collation;
+import scheduler.util.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers whether a username is taken, for account creation. Each role has a Bloom filter of its usernames,
+ * built by {@link #load()} and extended whenever an account is saved. A name the filter has never seen is
+ * reported free without a query. Any other name is checked with a primary-key lookup, so a false positive
+ * costs one query but never rejects a free name.
+ *
+ * The filters are sized for scheduler.usernames.expected names per role (default 1,000,000), or twice the
+ * current count if that is larger, at a false-positive probability of scheduler.usernames.fpp (default 0.01).
+ * Until they are loaded every check goes to the database. The filters' expected and observed false-positive rates
+ * are published over JMX as scheduler:type=UsernameRegistry,name="usernames" and shown by the stats command.
+ */
+public class UsernameRegistry implements UsernameRegistryMXBean {
+    private static final UsernameRegistry INSTANCE = new UsernameRegistry(
+            Long.getLong("scheduler.usernames.expected", 1_000_000L),
+            Double.parseDouble(System.getProperty("scheduler.usernames.fpp", "0.01")));
+
+    static {
+        Metrics.getInstance().register("UsernameRegistry", "usernames", INSTANCE);
+    }
+
+    public enum Role {
+        PATIENT(Query.PATIENT_USERNAMES, Query.PATIENT_COUNT, Query.PATIENT_EXISTS),
+        CAREGIVER(Query.CAREGIVER_USERNAMES, Query.CAREGIVER_COUNT, Query.CAREGIVER_EXISTS);
+
+        private final Query all;
+        private final Query count;
+        private final Query exists;
+
+        Role(Query all, Query count, Query exists) {
+            this.all = all;
+            this.count = count;
+            this.exists = exists;
+        }
+    }
+
+    private final long expected;
+    private final double fpp;
+    private final BloomFilter[] filters = new BloomFilter[Role.values().length];
+    private volatile boolean loaded = false;
+
+    private final AtomicLong filtered = new AtomicLong();
+    private final AtomicLong queried = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    public static UsernameRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private UsernameRegistry(long expected, double fpp) {
+        this.expected = expected;
+        this.fpp = fpp;
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // builds the filters from the Patients and Caregivers tables
+    public synchronized void load() throws SQLException {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+        try {
+            for (Role role : Role.values()) {
+                filters[role.ordinal()] = build(pool, con, role);
+            }
+            loaded = true;
+        } finally {
+            pool.returnConnection(con);
+        }
+    }
+
+    private BloomFilter build(ConnectionPool pool, Connection con, Role role) throws SQLException {
+        long count;
+        try (PreparedStatement statement = pool.prepare(con, role.count);
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            count = resultSet.getLong(1);
+        }
+        BloomFilter filter = new BloomFilter(Math.max(expected, 2 * count), fpp);
+        try (PreparedStatement statement = pool.prepare(con, role.all);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                filter.add(Collation.key(resultSet.getString("Username")));
+            }
+        }
+        return filter;
+    }
+
+    public boolean exists(Role role, String username) throws SQLException {
+        if (loaded && !filters[role.ordinal()].mightContain(Collation.key(username))) {
+            filtered.incrementAndGet();
+            return false;
+        }
+        queried.incrementAndGet();
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+
+        try (PreparedStatement statement = pool.prepare(con, role.exists)) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                boolean exists = resultSet.next();
+                if (loaded && !exists) {
+                    falsePositives.incrementAndGet();
+                }
+                return exists;
+            }
+        } finally {
+            pool.returnConnection(con);
+        }
+    }
+
+    // records a username that was just saved
+    public void added(Role role, String username) {
+        if (loaded) {
+            filters[role.ordinal()].add(Collation.key(username));
+        }
+    }
+
+    // the false-positive probability of a role's filter at its current fill, or 1 before it is loaded
+    public double getExpectedFpp(Role role) {
+        return loaded ? filters[role.ordinal()].getExpectedFpp() : 1;
+    }
+
+    @Override
+    public double getPatientExpectedFpp() {
+        return getExpectedFpp(Role.PATIENT);
+    }
+
+    @Override
+    public double getCaregiverExpectedFpp() {
+        return getExpectedFpp(Role.CAREGIVER);
+    }
+
+    // checks answered by a filter alone
+    @Override
+    public long getFilteredCount() {
+        return filtered.get();
+    }
+
+    // checks that went to the database
+    @Override
+    public long getQueriedCount() {
+        return queried.get();
+    }
+
+    // database checks for free names that a loaded filter had let through
+    @Override
+    public long getFalsePositiveCount() {
+        return falsePositives.get();
+    }
+
+    // the share of free names the filters failed to answer, or 0 before any free name was checked
+    @Override
+    public double getObservedFpp() {
+        long positives = falsePositives.get();
+        long negatives = filtered.get() + positives;
+        return negatives == 0 ? 0 : (double) positives / negatives;
+    }
+}
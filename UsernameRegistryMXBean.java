@@ -0,0 +1,18 @@
+package scheduler.model;
+
+// the JMX view of UsernameRegistry: how well the Bloom filters spare the database
+public interface UsernameRegistryMXBean {
+    boolean isLoaded();
+
+    double getPatientExpectedFpp();
+
+    double getCaregiverExpectedFpp();
+
+    long getFilteredCount();
+
+    long getQueriedCount();
+
+    long getFalsePositiveCount();
+
+    double getObservedFpp();
+}
@@ -1,16 +1,30 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.AsyncExecutor;
+import scheduler.db.ConnectionPool;
+import scheduler.db.Query;
+import scheduler.util.Metrics;
+import scheduler.util.OperationStats;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
 
 public class Vaccine {
     private final String vaccineName;
     private int availableDoses;
 
+    private static final int LIST_FETCH_SIZE = 256;
+
+    // database calls, each timed from borrowing the connection to returning it; failed borrows are counted by the
+    // pool itself
+    private static final OperationStats SAVE = Metrics.getInstance().operation("vaccine.save");
+    private static final OperationStats ADD_DOSES = Metrics.getInstance().operation("vaccine.addDoses");
+    private static final OperationStats REMOVE_DOSES = Metrics.getInstance().operation("vaccine.removeDoses");
+    private static final OperationStats LIST_AVAILABLE = Metrics.getInstance().operation("vaccine.listAvailable");
+
     private Vaccine(VaccineBuilder builder) {
         this.vaccineName = builder.vaccineName;
         this.availableDoses = builder.availableDoses;
@@ -30,20 +44,32 @@ public class Vaccine {
         return availableDoses;
     }
 
+    // inserts the vaccine with a VaccineBookings checkpoint of zero in one transaction, so the inventory charges
+    // it for every appointment from the first one on
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        long start = System.nanoTime();
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
 
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
+            con.setAutoCommit(false);
+            try (PreparedStatement statement = pool.prepare(con, Query.VACCINE_INSERT)) {
+                statement.setString(1, this.vaccineName);
+                statement.setInt(2, this.availableDoses);
+                statement.executeUpdate();
+            }
+            try (PreparedStatement statement = pool.prepare(con, Query.VACCINE_BOOKINGS_INSERT)) {
+                statement.setString(1, this.vaccineName);
+                statement.executeUpdate();
+            }
+            con.commit();
+            VaccineInventory.getInstance().register(this.vaccineName, this.availableDoses);
         } catch (SQLException e) {
-            throw new SQLException();
+            SAVE.failed(e);
+            throw e;
         } finally {
-            cm.closeConnection();
+            pool.returnConnection(con);
+            SAVE.record(System.nanoTime() - start);
         }
     }
 
@@ -52,54 +78,110 @@ public class Vaccine {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses += num;
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        long start = System.nanoTime();
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
+        try (PreparedStatement statement = pool.prepare(con, Query.VACCINE_ADD_DOSES)) {
+            statement.setInt(1, num);
             statement.setString(2, this.vaccineName);
             statement.executeUpdate();
+            this.availableDoses += num;
+            VaccineInventory.getInstance().added(this.vaccineName, num);
         } catch (SQLException e) {
-            throw new SQLException();
+            ADD_DOSES.failed(e);
+            throw e;
         } finally {
-            cm.closeConnection();
+            pool.returnConnection(con);
+            ADD_DOSES.record(System.nanoTime() - start);
         }
     }
 
-    // Decrement the available doses
+    // Decrement the available doses; the update only applies if the stored count covers num, so concurrent
+    // callers cannot drive it negative. New bookings of the vaccine wait while its pending ones are flushed, so
+    // the stored count is current when it is checked.
     public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
-            throw new IllegalArgumentException("Not enough available doses!");
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        try (BookingLocks.Guard guard = BookingLocks.getInstance().newGuard()) {
+            guard.lockVaccine(this.vaccineName);
+            VaccineInventory.getInstance().flush();
+
+            long start = System.nanoTime();
+            ConnectionPool pool = ConnectionPool.getInstance();
+            Connection con = pool.borrowConnection();
+
+            int updated;
+            try (PreparedStatement statement = pool.prepare(con, Query.VACCINE_REMOVE_DOSES)) {
+                statement.setInt(1, num);
+                statement.setString(2, this.vaccineName);
+                statement.setInt(3, num);
+                updated = statement.executeUpdate();
+            } catch (SQLException e) {
+                REMOVE_DOSES.failed(e);
+                throw e;
+            } finally {
+                pool.returnConnection(con);
+                REMOVE_DOSES.record(System.nanoTime() - start);
+            }
+            if (updated == 0) {
+                throw new IllegalArgumentException("Not enough available doses!");
+            }
+            this.availableDoses -= num;
+            VaccineInventory.getInstance().added(this.vaccineName, -num);
+        }
+    }
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+    // receives one row of a vaccine listing
+    public interface VaccineConsumer {
+        void accept(String vaccineName, int availableDoses);
+    }
+
+    // Streams the vaccines that have doses left, ordered by name, to the consumer without building Vaccine
+    // objects. Skips the first offset rows and stops after limit rows; returns the number of rows delivered.
+    // Counts are read from the Vaccines table, which trails the in-memory inventory by at most one flush.
+    public static int listAvailable(int offset, int limit, VaccineConsumer consumer) throws SQLException {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit cannot be negative!");
+        }
+        long start = System.nanoTime();
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+
+        try (PreparedStatement statement = pool.prepare(con, Query.VACCINE_LIST_AVAILABLE)) {
+            statement.setInt(1, offset);
+            statement.setInt(2, limit);
+            statement.setFetchSize(Math.min(limit, LIST_FETCH_SIZE));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                int count = 0;
+                while (resultSet.next()) {
+                    consumer.accept(resultSet.getString(1), resultSet.getInt(2));
+                    count++;
+                }
+                return count;
+            }
         } catch (SQLException e) {
-            throw new SQLException();
+            LIST_AVAILABLE.failed(e);
+            throw e;
         } finally {
-            cm.closeConnection();
+            pool.returnConnection(con);
+            LIST_AVAILABLE.record(System.nanoTime() - start);
         }
     }
 
-    @Override
-    public String toString() {
+    public static String format(String vaccineName, int availableDoses) {
         return "Vaccine{" +
                 "vaccineName='" + vaccineName + '\'' +
                 ", availableDoses=" + availableDoses +
                 '}';
     }
 
+    @Override
+    public String toString() {
+        return format(vaccineName, availableDoses);
+    }
+
     public static class VaccineBuilder {
         private final String vaccineName;
         private int availableDoses;
@@ -122,25 +204,18 @@ public class Vaccine {
             this.vaccineName = vaccineName;
         }
 
+        // served from the in-memory inventory, which falls back to the Vaccines table for unknown names
         public Vaccine get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
-                }
+            int doses = VaccineInventory.getInstance().getDoses(this.vaccineName);
+            if (doses < 0) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.availableDoses = doses;
+            return new Vaccine(this);
+        }
+
+        public CompletableFuture<Vaccine> getAsync() {
+            return AsyncExecutor.getInstance().supply(this::get);
         }
     }
 }
@@ -0,0 +1,347 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionPool;
+import scheduler.db.Query;
+import scheduler.util.Collation;
+import scheduler.util.Metrics;
+import scheduler.util.OperationStats;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds the dose count of every vaccine in memory so that stock checks and reservations do not read the
+ * Vaccines table.
+ *
+ * Each vaccine gets a small integer id and its count lives in a CAS-updated slot of a primitive array, padded
+ * so that neighbouring vaccines do not share a cache line. Reservations take a dose with a compare-and-set that
+ * never goes below zero, and cancellations give it back, both without touching the database. The changed
+ * vaccines are written back to the Vaccines table in one batched transaction every
+ * scheduler.inventory.flushMillis milliseconds.
+ *
+ * Write-back does not replay in-memory deltas. Instead it derives them from the Appointments table, which every
+ * reservation and cancellation already updates in its own transaction. VaccineBookings records how many
+ * appointments each vaccine's Doses column already accounts for, and a flush subtracts whatever has been booked
+ * since. After a crash, the next load runs the same reconciliation over every vaccine, so no reservation is ever
+ * lost from the stock count. Adding doses is written through immediately.
+ *
+ * Vaccines are keyed by {@link Collation#key}, as the Vaccines table compares names, so "pfizer" and "Pfizer"
+ * share one counter.
+ *
+ * The counters are authoritative only within this process, so reservations should go through a single
+ * scheduler process (see the server mode).
+ */
+public class VaccineInventory {
+    private static final VaccineInventory INSTANCE = new VaccineInventory(
+            Long.getLong("scheduler.inventory.flushMillis", 1000L));
+    private static final OperationStats FLUSH = Metrics.getInstance().operation("inventory.flush");
+
+    private static final int SEGMENT_BITS = 8;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int MAX_SEGMENTS = 1024;
+    // ints per vaccine: the dose count, a dirty flag, and padding up to 64 bytes
+    private static final int STRIDE = 16;
+    private static final int DIRTY = 1;
+
+    public enum Acquisition {
+        ACQUIRED,
+        OUT_OF_STOCK,
+        NO_SUCH_VACCINE
+    }
+
+    // by Collation.key of the vaccine name
+    private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private final AtomicReferenceArray<AtomicIntegerArray> segments =
+            new AtomicReferenceArray<AtomicIntegerArray>(MAX_SEGMENTS);
+    private int nextId = 0;
+
+    private final long flushMillis;
+    private volatile boolean loaded = false;
+    private ScheduledExecutorService flusher;
+    // whether the last write-back failed; only the flusher thread uses it
+    private boolean flushFailing = false;
+
+    public static VaccineInventory getInstance() {
+        return INSTANCE;
+    }
+
+    private VaccineInventory(long flushMillis) {
+        this.flushMillis = flushMillis;
+    }
+
+    /**
+     * Reconciles the Vaccines table with any appointments it does not account for yet, e.g. after a crash, and
+     * loads every count into memory. Called lazily by the first operation that needs the counts.
+     */
+    public synchronized void load() throws SQLException {
+        if (loaded) {
+            return;
+        }
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+
+        List<String> all = new ArrayList<String>();
+        try {
+            try (PreparedStatement statement = pool.prepare(con, Query.VACCINE_ALL);
+                 ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    all.add(resultSet.getString("Name"));
+                }
+            }
+            reconcile(pool, con, all);
+            try (PreparedStatement statement = pool.prepare(con, Query.VACCINE_ALL);
+                 ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    register(resultSet.getString("Name"), resultSet.getInt("Doses"));
+                }
+            }
+        } finally {
+            pool.returnConnection(con);
+        }
+        loaded = true;
+        if (flushMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "vaccine-inventory-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushInBackground, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // the vaccines stay dirty after a failure and are written on the next run; every failure is counted, and the
+    // first of a streak is printed, since the Vaccines table falls behind the counters until a flush succeeds
+    private void flushInBackground() {
+        long start = System.nanoTime();
+        try {
+            flush();
+            if (flushFailing) {
+                flushFailing = false;
+                System.err.println("Vaccine inventory write-back recovered");
+            }
+        } catch (SQLException | RuntimeException e) {
+            FLUSH.failed(e);
+            if (!flushFailing) {
+                flushFailing = true;
+                System.err.println("Vaccine inventory write-back failed, retrying every " + flushMillis + " ms");
+                e.printStackTrace();
+            }
+        } finally {
+            FLUSH.record(System.nanoTime() - start);
+        }
+    }
+
+    // returns the available doses, or -1 if there is no such vaccine
+    public int getDoses(String vaccine) throws SQLException {
+        int id = idOf(vaccine);
+        return id < 0 ? -1 : segment(id).get(slot(id));
+    }
+
+    // takes one dose for a reservation; the count never drops below zero
+    public Acquisition tryAcquire(String vaccine) throws SQLException {
+        int id = idOf(vaccine);
+        if (id < 0) {
+            return Acquisition.NO_SUCH_VACCINE;
+        }
+        AtomicIntegerArray segment = segment(id);
+        int slot = slot(id);
+        while (true) {
+            int doses = segment.get(slot);
+            if (doses <= 0) {
+                return Acquisition.OUT_OF_STOCK;
+            }
+            if (segment.compareAndSet(slot, doses, doses - 1)) {
+                return Acquisition.ACQUIRED;
+            }
+        }
+    }
+
+    // gives back a dose taken by tryAcquire when the reservation was not committed
+    public void release(String vaccine) throws SQLException {
+        int id = idOf(vaccine);
+        if (id >= 0) {
+            segment(id).incrementAndGet(slot(id));
+        }
+    }
+
+    // schedules the vaccine for write-back once the reservation that took a dose has been committed
+    public void booked(String vaccine) throws SQLException {
+        int id = idOf(vaccine);
+        if (id >= 0) {
+            markDirty(segment(id), slot(id));
+        }
+    }
+
+    // returns the dose of a committed cancellation and schedules the vaccine for write-back
+    public void cancelled(String vaccine) throws SQLException {
+        int id = idOf(vaccine);
+        if (id >= 0) {
+            segment(id).incrementAndGet(slot(id));
+            markDirty(segment(id), slot(id));
+        }
+    }
+
+    // records doses that were already written to the Vaccines table, e.g. by add_doses
+    public void added(String vaccine, int num) throws SQLException {
+        int id = idOf(vaccine);
+        if (id >= 0) {
+            segment(id).addAndGet(slot(id), num);
+        }
+    }
+
+    /**
+     * Writes every changed vaccine back to the Vaccines table in one transaction. A flush that fails leaves the
+     * vaccines dirty for the next attempt.
+     */
+    public void flush() throws SQLException {
+        List<String> dirty = new ArrayList<String>();
+        for (String vaccine : ids.keySet()) {
+            int id = ids.get(vaccine);
+            AtomicIntegerArray segment = segments.get(id >>> SEGMENT_BITS);
+            if (segment.compareAndSet(slot(id) + DIRTY, 1, 0)) {
+                dirty.add(vaccine);
+            }
+        }
+        if (dirty.isEmpty()) {
+            return;
+        }
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+        try {
+            // the keys select the same rows as the original names
+            reconcile(pool, con, dirty);
+        } catch (SQLException e) {
+            for (String vaccine : dirty) {
+                int id = ids.get(vaccine);
+                markDirty(segments.get(id >>> SEGMENT_BITS), slot(id));
+            }
+            throw e;
+        } finally {
+            pool.returnConnection(con);
+        }
+    }
+
+    // flushes outstanding changes and stops the background writer
+    public synchronized void shutdown() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        if (loaded) {
+            try {
+                flush();
+            } catch (SQLException e) {
+                // reconciled on the next load
+            }
+        }
+    }
+
+    // charges each vaccine for the appointments booked since the last reconciliation, in one transaction
+    private static void reconcile(ConnectionPool pool, Connection con, List<String> vaccines) throws SQLException {
+        int isolation = con.getTransactionIsolation();
+        con.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        con.setAutoCommit(false);
+        try (PreparedStatement addStatement = pool.prepare(con, Query.VACCINE_BOOKINGS_INIT);
+             PreparedStatement countStatement = pool.prepare(con, Query.APPOINTMENT_COUNT_BY_VACCINE);
+             PreparedStatement chargeStatement = pool.prepare(con, Query.VACCINE_CHARGE_DOSES);
+             PreparedStatement bookingStatement = pool.prepare(con, Query.VACCINE_BOOKINGS_UPDATE)) {
+            addStatement.executeUpdate();
+            for (String vaccine : vaccines) {
+                countStatement.setString(1, vaccine);
+                int booked;
+                try (ResultSet resultSet = countStatement.executeQuery()) {
+                    resultSet.next();
+                    booked = resultSet.getInt("Booked");
+                }
+                chargeStatement.setInt(1, booked);
+                chargeStatement.setString(2, vaccine);
+                chargeStatement.setString(3, vaccine);
+                chargeStatement.addBatch();
+                bookingStatement.setInt(1, booked);
+                bookingStatement.setString(2, vaccine);
+                bookingStatement.addBatch();
+            }
+            chargeStatement.executeBatch();
+            bookingStatement.executeBatch();
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(true);
+            con.setTransactionIsolation(isolation);
+        }
+    }
+
+    // Returns the id of a vaccine, looking it up in the database if another process created it; -1 if unknown. A
+    // miss borrows a pooled connection, so callers inside a transaction resolve the vaccine beforehand, e.g. with
+    // getDoses; ids are never dropped, so a resolved vaccine stays a hit.
+    private int idOf(String vaccine) throws SQLException {
+        if (!loaded) {
+            load();
+        }
+        Integer id = ids.get(Collation.key(vaccine));
+        if (id != null) {
+            return id;
+        }
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection con = pool.borrowConnection();
+
+        try (PreparedStatement statement = pool.prepare(con, Query.VACCINE_DOSES)) {
+            statement.setString(1, vaccine);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return -1;
+                }
+                return register(vaccine, resultSet.getInt("Doses"));
+            }
+        } finally {
+            pool.returnConnection(con);
+        }
+    }
+
+    // adds a vaccine with the given stored count; returns the existing id if it is already known
+    public synchronized int register(String vaccine, int doses) {
+        String key = Collation.key(vaccine);
+        Integer existing = ids.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        int id = nextId;
+        int segmentIndex = id >>> SEGMENT_BITS;
+        if (segmentIndex >= MAX_SEGMENTS) {
+            throw new IllegalStateException("Too many vaccines for the inventory: " + id);
+        }
+        if (segments.get(segmentIndex) == null) {
+            segments.set(segmentIndex, new AtomicIntegerArray(SEGMENT_SIZE * STRIDE));
+        }
+        segments.get(segmentIndex).set(slot(id), doses);
+        nextId++;
+        ids.put(key, id);
+        return id;
+    }
+
+    private AtomicIntegerArray segment(int id) {
+        return segments.get(id >>> SEGMENT_BITS);
+    }
+
+    private static int slot(int id) {
+        return (id & (SEGMENT_SIZE - 1)) * STRIDE;
+    }
+
+    private static void markDirty(AtomicIntegerArray segment, int slot) {
+        if (segment.get(slot + DIRTY) == 0) {
+            segment.set(slot + DIRTY, 1);
+        }
+    }
+}
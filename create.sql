@@ -1,14 +1,17 @@
 CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BINARY(16),
-    Hash BINARY(16),
+    Hash VARBINARY(256),
     PRIMARY KEY (Username)
 );
 
+-- one row per open slot; a row is deleted when its capacity reaches zero
 CREATE TABLE Availabilities (
     Time date,
     Username varchar(255) REFERENCES Caregivers,
-    PRIMARY KEY (Time, Username)
+    Slot time(0) NOT NULL CONSTRAINT DF_Availabilities_Slot DEFAULT '00:00',
+    Capacity int NOT NULL CONSTRAINT DF_Availabilities_Capacity DEFAULT 1,
+    CONSTRAINT PK_Availabilities PRIMARY KEY (Time, Slot, Username)
 );
 
 CREATE TABLE Vaccines (
@@ -17,10 +20,17 @@ CREATE TABLE Vaccines (
     PRIMARY KEY (Name)
 );
 
+-- the number of appointments already charged to Vaccines.Doses, see VaccineInventory
+CREATE TABLE VaccineBookings (
+    Name varchar(255) REFERENCES Vaccines,
+    Booked int,
+    PRIMARY KEY (Name)
+);
+
 CREATE TABLE Patients (
     Username varchar(255),
     Salt BINARY(16),
-    Hash BINARY(16),
+    Hash VARBINARY(256),
     PRIMARY KEY (Username)
 );
 
@@ -30,5 +40,24 @@ CREATE TABLE Appointments (
     VaccineName varchar(255) REFERENCES Vaccines,
     Date date,
     AppointmentID varchar(255),
+    Slot time(0) NOT NULL CONSTRAINT DF_Appointments_Slot DEFAULT '00:00',
     PRIMARY KEY (AppointmentID)
-);
\ No newline at end of file
+);
+
+CREATE INDEX IX_Appointments_CaregiverName_Date ON Appointments (CaregiverName, Date)
+    INCLUDE (PatientName, VaccineName, AppointmentID);
+CREATE INDEX IX_Appointments_PatientName_Date ON Appointments (PatientName, Date)
+    INCLUDE (CaregiverName, VaccineName, AppointmentID);
+CREATE INDEX IX_Appointments_VaccineName ON Appointments (VaccineName);
+CREATE INDEX IX_Appointments_Date ON Appointments (Date) INCLUDE (CaregiverName);
+CREATE INDEX IX_Availabilities_Username_Time ON Availabilities (Username, Time);
+
+-- keep in step with the latest migration in SchemaMigrator
+CREATE TABLE SchemaVersion (
+    Version int,
+    Description varchar(255),
+    AppliedAt datetime2,
+    PRIMARY KEY (Version)
+);
+
+INSERT INTO SchemaVersion VALUES (8, 'create.sql', SYSDATETIME());